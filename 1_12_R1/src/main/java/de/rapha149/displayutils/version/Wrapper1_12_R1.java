@@ -3,46 +3,76 @@ package de.rapha149.displayutils.version;
 import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.properties.Property;
 import de.rapha149.displayutils.version.ReflectionUtil.ReflectionException;
-import de.rapha149.displayutils.display.npc.NPC;
-import de.rapha149.displayutils.display.npc.NPCSkin;
-import de.rapha149.displayutils.display.npc.NPCSkin.NPCSkinPart;
 import de.rapha149.displayutils.display.scoreboard.TeamOptions;
 import de.rapha149.displayutils.display.scoreboard.TeamOptionsBuilder;
 import de.rapha149.displayutils.display.scoreboard.TeamOptionStatus;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.util.ReferenceCountUtil;
 import net.minecraft.server.v1_12_R1.*;
 import net.minecraft.server.v1_12_R1.PacketPlayOutEntity.PacketPlayOutEntityLook;
 import net.minecraft.server.v1_12_R1.ScoreboardTeamBase.EnumNameTagVisibility;
 import net.minecraft.server.v1_12_R1.ScoreboardTeamBase.EnumTeamPush;
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
-import org.bukkit.craftbukkit.v1_12_R1.CraftServer;
 import org.bukkit.craftbukkit.v1_12_R1.CraftWorld;
-import org.bukkit.craftbukkit.v1_12_R1.entity.CraftEntity;
 import org.bukkit.craftbukkit.v1_12_R1.entity.CraftLivingEntity;
 import org.bukkit.craftbukkit.v1_12_R1.entity.CraftPlayer;
 import org.bukkit.entity.ArmorStand;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Predicate;
 
 public class Wrapper1_12_R1 implements VersionWrapper {
 
+    private final PacketHandlerRegistry handlerRegistry = new PacketHandlerRegistry();
+    private final int entityLookPacketId = getPacketId(new PacketPlayOutEntityLook());
+    private final int entityHeadRotationPacketId = getPacketId(new PacketPlayOutEntityHeadRotation());
+    private final int namedEntitySpawnPacketId = getPacketId(new PacketPlayOutNamedEntitySpawn());
+    private final int entityTeleportPacketId = getPacketId(new PacketPlayOutEntityTeleport());
+
     @Override
     public void sendPackets(Player player, List<Object> packets) {
         PlayerConnection conn = ((CraftPlayer) player).getHandle().playerConnection;
         packets.forEach(packet -> conn.sendPacket((Packet<?>) packet));
     }
 
+    @Override
+    public void sendPacketBatch(Player player, List<Object> packets) {
+        if (packets.isEmpty())
+            return;
+
+        Channel channel = ((CraftPlayer) player).getHandle().playerConnection.networkManager.channel;
+        runInEventLoop(channel, () -> {
+            packets.forEach(channel::write);
+            channel.flush();
+        }, packets);
+    }
+
+    @Override
+    public ByteBuf encodePacket(Object packet) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            PacketDataSerializer serializer = new PacketDataSerializer(buf);
+            serializer.d(EnumProtocol.PLAY.a(EnumProtocolDirection.CLIENTBOUND, (Packet<?>) packet));
+            ((Packet<?>) packet).b(serializer);
+            return buf;
+        } catch (Exception e) {
+            buf.release();
+            throw new IllegalStateException("Could not encode packet of class " + packet.getClass().getName(), e);
+        }
+    }
+
     @Override
     public void addOutgoingPacketHandler(Player player, String handlerName, Predicate<Object> listener) {
         PlayerConnection conn = ((CraftPlayer) player).getHandle().playerConnection;
@@ -51,6 +81,7 @@ public class Wrapper1_12_R1 implements VersionWrapper {
         if (pipeline.names().contains(handlerName))
             pipeline.remove(handlerName);
 
+        handlerRegistry.register(player, handlerName);
         pipeline.addAfter("packet_handler", handlerName, new ChannelDuplexHandler() {
 
             @Override
@@ -77,6 +108,7 @@ public class Wrapper1_12_R1 implements VersionWrapper {
         if (pipeline.names().contains(handlerName))
             pipeline.remove(handlerName);
 
+        handlerRegistry.register(player, handlerName);
         pipeline.addAfter("decoder", handlerName, new MessageToMessageDecoder<Packet<?>>() {
 
             @Override
@@ -93,6 +125,61 @@ public class Wrapper1_12_R1 implements VersionWrapper {
         });
     }
 
+    @Override
+    public boolean removePacketHandler(Player player, String handlerName) {
+        handlerRegistry.unregister(player, handlerName);
+        return removePacketHandler(((CraftPlayer) player).getHandle().playerConnection.networkManager.channel.pipeline(), handlerName);
+    }
+
+    @Override
+    public void removePacketHandlers(Player player) {
+        ChannelPipeline pipeline = ((CraftPlayer) player).getHandle().playerConnection.networkManager.channel.pipeline();
+        handlerRegistry.unregisterAll(player).forEach(handlerName -> removePacketHandler(pipeline, handlerName));
+    }
+
+    private int getPacketId(Packet<?> packet) {
+        try {
+            return EnumProtocol.PLAY.a(EnumProtocolDirection.CLIENTBOUND, packet);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not get the id of packet " + packet.getClass().getName(), e);
+        }
+    }
+
+    private void runInEventLoop(Channel channel, Runnable task, List<Object> packets) {
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            task.run();
+            return;
+        }
+
+        try {
+            eventLoop.execute(task);
+        } catch (RejectedExecutionException e) {
+            packets.forEach(ReferenceCountUtil::release);
+        }
+    }
+
+    private boolean removePacketHandler(ChannelPipeline pipeline, String handlerName) {
+        try {
+            return pipeline.remove(handlerName) != null;
+        } catch (NoSuchElementException e) {
+            // the handler was already removed, e.g. because the channel was closed
+            return false;
+        }
+    }
+
+    @Override
+    public Class<?> getIncomingPacketClass(IncomingPacketType type) {
+        switch (type) {
+            case FLYING:
+                return PacketPlayInFlying.class;
+            case USE_ENTITY:
+                return PacketPlayInUseEntity.class;
+            default:
+                throw new IllegalStateException("Unexpected value: " + type);
+        }
+    }
+
     @Override
     public int getMaxTeamPrefixSuffixLength() {
         return 16;
@@ -257,6 +344,50 @@ public class Wrapper1_12_R1 implements VersionWrapper {
         return new PacketPlayOutEntityMetadata(entity.getEntityId(), ((CraftLivingEntity) entity).getHandle().getDataWatcher(), true);
     }
 
+    @Override
+    public Object getEntityMetadataPacket(LivingEntity entity, Set<EntityMetadataField> fields) {
+        // all indices are below 32, so they fit into an int mask
+        int indices = 0;
+        for (EntityMetadataField field : fields) {
+            int index = getMetadataIndex(field);
+            if (index != -1)
+                indices |= 1 << index;
+        }
+
+        List<DataWatcher.Item<?>> items = new ArrayList<>(fields.size());
+        for (DataWatcher.Item<?> item : ((CraftLivingEntity) entity).getHandle().getDataWatcher().c()) {
+            int index = item.a().a();
+            if (index < 32 && (indices & 1 << index) != 0)
+                items.add(item);
+        }
+
+        PacketPlayOutEntityMetadata packet = new PacketPlayOutEntityMetadata();
+        try {
+            ReflectionUtil.setField(packet, "a", entity.getEntityId());
+            ReflectionUtil.setField(packet, "b", items);
+            return packet;
+        } catch (ReflectionException e) {
+            e.printStackTrace();
+            return getEntityMetadataPacket(entity);
+        }
+    }
+
+    private int getMetadataIndex(EntityMetadataField field) {
+        switch (field) {
+            case FLAGS:
+                return 0;
+            case CUSTOM_NAME:
+                return 2;
+            case CUSTOM_NAME_VISIBLE:
+                return 3;
+            case POSE:
+                // poses don't exist in this version
+                return -1;
+            default:
+                throw new IllegalStateException("Unexpected value: " + field);
+        }
+    }
+
     @Override
     public Object getDestroyEntitiesPacket(List<LivingEntity> entities) {
         return new PacketPlayOutEntityDestroy(entities.stream().map(LivingEntity::getEntityId).mapToInt(Integer::intValue).toArray());
@@ -268,53 +399,147 @@ public class Wrapper1_12_R1 implements VersionWrapper {
     }
 
     @Override
-    public Player createPlayer(NPC npc) {
-        NPCSkin skin = npc.getSkin();
-        Location loc = npc.getLoc();
+    public int nextEntityId() {
+        // the counter is a plain int in this version that is only incremented on the main thread
+        try {
+            int id = ReflectionUtil.getField(null, Entity.class, "entityCount", Integer.class);
+            ReflectionUtil.setField(null, Entity.class, "entityCount", id + 1);
+            return id;
+        } catch (ReflectionException e) {
+            throw new IllegalStateException("Could not get the next entity id", e);
+        }
+    }
+
+    @Override
+    public Object getPlayerInfoPacket(NPCEntity entity, boolean add) {
+        return getPlayerInfoPacket(Collections.singletonList(entity), add);
+    }
+
+    @Override
+    public Object getPlayerInfoPacket(List<NPCEntity> entities, boolean add) {
+        PacketPlayOutPlayerInfo packet = new PacketPlayOutPlayerInfo();
+        try {
+            ReflectionUtil.setField(packet, "a", add ? PacketPlayOutPlayerInfo.EnumPlayerInfoAction.ADD_PLAYER :
+                    PacketPlayOutPlayerInfo.EnumPlayerInfoAction.REMOVE_PLAYER);
+            List<PacketPlayOutPlayerInfo.PlayerInfoData> data = ReflectionUtil.getField(packet, "b");
+            for (NPCEntity entity : entities)
+                data.add(packet.new PlayerInfoData(getProfile(entity), 0, EnumGamemode.NOT_SET, null));
+            return packet;
+        } catch (ReflectionException e) {
+            throw new IllegalStateException("Could not construct player info packet", e);
+        }
+    }
 
-        GameProfile profile = new GameProfile(UUID.randomUUID(), npc.getName());
+    private GameProfile getProfile(NPCEntity entity) {
+        GameProfile profile = new GameProfile(entity.getUniqueId(), entity.getName());
         profile.getProperties().put("properties", new Property(
                 "textures",
-                skin.getTexture(),
-                skin.getSignature()
+                entity.getTexture(),
+                entity.getSignature()
         ));
+        return profile;
+    }
 
-        MinecraftServer server = ((CraftServer) Bukkit.getServer()).getServer();
-        WorldServer world = ((CraftWorld) loc.getWorld()).getHandle();
-        EntityPlayer entityPlayer = new EntityPlayer(server, world, profile, new PlayerInteractManager(world));
-        entityPlayer.setLocation(loc.getX(), loc.getY(), loc.getZ(), loc.getYaw(), loc.getPitch());
-        entityPlayer.getDataWatcher().set(new DataWatcherObject<>(13, DataWatcherRegistry.a),
-                (byte) skin.getEnabledParts().stream().mapToInt(NPCSkinPart::getBit).sum());
-        return entityPlayer.getBukkitEntity();
+    @Override
+    public ByteBuf encodeNamedEntitySpawnPacket(NPCEntity entity) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            PacketDataSerializer serializer = new PacketDataSerializer(buf);
+            serializer.d(namedEntitySpawnPacketId);
+            serializer.d(entity.getEntityId());
+            serializer.a(entity.getUniqueId());
+            serializer.writeDouble(entity.getX());
+            serializer.writeDouble(entity.getY());
+            serializer.writeDouble(entity.getZ());
+            serializer.writeByte((int) (entity.getYaw() * 256 / 360));
+            serializer.writeByte((int) (entity.getPitch() * 256 / 360));
+            // the spawn packet contains the metadata in this version
+            DataWatcher.a(getMetadataItems(entity, null), serializer);
+            return buf;
+        } catch (Exception e) {
+            buf.release();
+            throw new IllegalStateException("Could not encode named entity spawn packet", e);
+        }
     }
 
     @Override
-    public void setSneaking(Player player, boolean sneaking) {
-        player.setSneaking(sneaking);
+    public Object getEntityMetadataPacket(NPCEntity entity) {
+        return getEntityMetadataPacket(entity.getEntityId(), getMetadataItems(entity, null));
+    }
+
+    @Override
+    public Object getEntityMetadataPacket(NPCEntity entity, Set<EntityMetadataField> fields) {
+        return getEntityMetadataPacket(entity.getEntityId(), getMetadataItems(entity, fields));
+    }
+
+    private Object getEntityMetadataPacket(int entityId, List<DataWatcher.Item<?>> items) {
+        PacketPlayOutEntityMetadata packet = new PacketPlayOutEntityMetadata();
+        try {
+            ReflectionUtil.setField(packet, "a", entityId);
+            ReflectionUtil.setField(packet, "b", items);
+            return packet;
+        } catch (ReflectionException e) {
+            throw new IllegalStateException("Could not construct entity metadata packet", e);
+        }
+    }
+
+    /**
+     * @param entity The NPC.
+     * @param fields The entries to include or null to include the skin parts as well.
+     * @return The metadata entries of the NPC.
+     */
+    private List<DataWatcher.Item<?>> getMetadataItems(NPCEntity entity, Set<EntityMetadataField> fields) {
+        List<DataWatcher.Item<?>> items = new ArrayList<>(3);
+        if (fields == null || fields.contains(EntityMetadataField.FLAGS))
+            items.add(new DataWatcher.Item<>(new DataWatcherObject<>(getMetadataIndex(EntityMetadataField.FLAGS), DataWatcherRegistry.a),
+                    (byte) (entity.isSneaking() ? 0x02 : 0)));
+        if (fields == null)
+            items.add(new DataWatcher.Item<>(new DataWatcherObject<>(13, DataWatcherRegistry.a), entity.getSkinParts()));
+        return items;
     }
 
     @Override
-    public Object getPlayerInfoPacket(Player player, boolean add) {
-        return new PacketPlayOutPlayerInfo(add ? PacketPlayOutPlayerInfo.EnumPlayerInfoAction.ADD_PLAYER :
-                PacketPlayOutPlayerInfo.EnumPlayerInfoAction.REMOVE_PLAYER, ((CraftPlayer) player).getHandle());
+    public ByteBuf encodeEntityTeleportPacket(NPCEntity entity) {
+        // two varints of at most 5 bytes each, three doubles and three single bytes
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(37);
+        PacketDataSerializer serializer = new PacketDataSerializer(buf);
+        serializer.d(entityTeleportPacketId);
+        serializer.d(entity.getEntityId());
+        serializer.writeDouble(entity.getX());
+        serializer.writeDouble(entity.getY());
+        serializer.writeDouble(entity.getZ());
+        serializer.writeByte((int) (entity.getYaw() * 256 / 360));
+        serializer.writeByte((int) (entity.getPitch() * 256 / 360));
+        serializer.writeBoolean(true);
+        return buf;
     }
 
     @Override
-    public Object getNamedEntitySpawnPacket(Player player) {
-        return new PacketPlayOutNamedEntitySpawn(((CraftPlayer) player).getHandle());
+    public Object getDestroyEntitiesPacket(int[] entityIds) {
+        return new PacketPlayOutEntityDestroy(entityIds);
     }
 
     @Override
-    public Object getEntityHeadRotationPacket(org.bukkit.entity.Entity entity, float yaw) {
-        return new PacketPlayOutEntityHeadRotation(((CraftEntity) entity).getHandle(), (byte) ((yaw % 360) * 256 / 360));
+    public ByteBuf encodeEntityLookPacket(int entityId, byte yaw, byte pitch, boolean onGround) {
+        // two varints of at most 5 bytes each and three single bytes
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(13);
+        PacketDataSerializer serializer = new PacketDataSerializer(buf);
+        serializer.d(entityLookPacketId);
+        serializer.d(entityId);
+        serializer.writeByte(yaw);
+        serializer.writeByte(pitch);
+        serializer.writeBoolean(onGround);
+        return buf;
     }
 
     @Override
-    public List<Object> getUpdateRotationPackets(org.bukkit.entity.Entity entity, float yaw, float pitch) {
-        return Arrays.asList(
-                new PacketPlayOutEntityLook(entity.getEntityId(), (byte) ((yaw % 360) * 256 / 360), (byte) ((pitch % 360) * 256 / 360), entity.isOnGround()),
-                getEntityHeadRotationPacket(entity, yaw)
-        );
+    public ByteBuf encodeEntityHeadRotationPacket(int entityId, byte yaw) {
+        ByteBuf buf = ByteBufAllocator.DEFAULT.buffer(11);
+        PacketDataSerializer serializer = new PacketDataSerializer(buf);
+        serializer.d(entityHeadRotationPacketId);
+        serializer.d(entityId);
+        serializer.writeByte(yaw);
+        return buf;
     }
 
     @Override
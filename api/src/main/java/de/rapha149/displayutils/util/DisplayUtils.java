@@ -1,5 +1,6 @@
 package de.rapha149.displayutils.util;
 
+import de.rapha149.displayutils.version.IncomingPacketType;
 import de.rapha149.displayutils.version.VersionWrapper;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -9,6 +10,7 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.plugin.Plugin;
 
 import java.lang.reflect.InvocationTargetException;
@@ -50,11 +52,38 @@ public class DisplayUtils {
 
         joinFinishedPlayers = Bukkit.getOnlinePlayers().stream().map(Player::getUniqueId).collect(Collectors.toList());
         Bukkit.getPluginManager().registerEvents(new JoinFinishListener(), plugin);
-
+        PacketDispatcher.subscribe(IncomingPacketType.FLYING, (player, packet) -> {
+            UUID uuid = player.getUniqueId();
+            if (!joinFinishedPlayers.contains(uuid)) {
+                joinFinishedPlayers.add(uuid);
+                Bukkit.getScheduler().runTask(plugin, () -> Bukkit.getPluginManager().callEvent(new PlayerJoinFinishEvent(player)));
+            }
+            return true;
+        });
+
+        PacketQueue.init();
         NPCUtil.init();
         HologramUtil.init();
         SidebarUtil.init();
         TablistUtil.init();
+
+        Bukkit.getOnlinePlayers().forEach(PacketDispatcher::inject);
+    }
+
+    /**
+     * Sets the maximum amount of packets the api sends to a single player per tick. <br>
+     * Packets exceeding the budget are sent in the following ticks. NPC and tablist packets are sent first, followed by sidebar packets and then hologram packets. <br>
+     * This can be used to spread out the packets that are sent to a player when they join, which reduces timeouts for players on weak connections. <br>
+     * The default is -1, which means that there is no limit.
+     *
+     * @param packetsPerTick The maximum amount of packets per player per tick or -1 for no limit.
+     * @throws IllegalArgumentException If the amount is 0 or smaller than -1.
+     */
+    public static void setPacketBudget(int packetsPerTick) {
+        if (packetsPerTick == 0 || packetsPerTick < -1)
+            throw new IllegalArgumentException("The packet budget must be positive or -1");
+
+        PacketQueue.setPacketBudget(packetsPerTick);
     }
 
     /**
@@ -68,8 +97,8 @@ public class DisplayUtils {
     }
 
     /**
-     * Internal listener that listens for the player to finish joining the server.
-     * Calls the event {@link PlayerJoinFinishEvent} when the player has finished joining.
+     * Internal listener that adds the packet handler to joining players and removes it when they quit or the plugin is disabled.
+     * The {@link PlayerJoinFinishEvent} is called by the packet handler when the player has finished joining.
      */
     private static class JoinFinishListener implements Listener {
 
@@ -78,23 +107,26 @@ public class DisplayUtils {
 
         @EventHandler
         public void onJoin(PlayerJoinEvent event) {
-            Player player = event.getPlayer();
-            UUID uuid = player.getUniqueId();
-            wrapper.addIncomingPacketHandler(player, "displayutils_joinfinish", packet -> {
-                if (!packet.getClass().getSimpleName().equals("PacketPlayInFlying"))
-                    return true;
-
-                if (!joinFinishedPlayers.contains(uuid)) {
-                    joinFinishedPlayers.add(uuid);
-                    Bukkit.getScheduler().runTask(plugin, () -> Bukkit.getPluginManager().callEvent(new PlayerJoinFinishEvent(player)));
-                }
-                return true;
-            });
+            PacketDispatcher.inject(event.getPlayer());
         }
 
         @EventHandler
         public void onQuit(PlayerQuitEvent event) {
-            joinFinishedPlayers.remove(event.getPlayer().getUniqueId());
+            Player player = event.getPlayer();
+            joinFinishedPlayers.remove(player.getUniqueId());
+            wrapper.removePacketHandlers(player);
+        }
+
+        @EventHandler
+        public void onDisable(PluginDisableEvent event) {
+            if (event.getPlugin() != plugin)
+                return;
+
+            // remove the handlers so they don't keep running (and referencing the plugin's classes) after a reload
+            Bukkit.getOnlinePlayers().forEach(wrapper::removePacketHandlers);
+            // release the pooled buffers, otherwise they would leak on every reload
+            NPCUtil.disable();
+            PacketQueue.disable();
         }
     }
 
@@ -4,8 +4,12 @@ import de.rapha149.displayutils.display.hologram.Hologram;
 import de.rapha149.displayutils.display.hologram.HologramVerticalAlignment;
 import de.rapha149.displayutils.util.HologramUtil.HologramData.GeneralHologramData;
 import de.rapha149.displayutils.util.HologramUtil.HologramData.PlayerHologramData;
+import de.rapha149.displayutils.util.PacketQueue.PacketKey;
+import de.rapha149.displayutils.util.PacketQueue.PacketPriority;
+import de.rapha149.displayutils.version.EntityMetadataField;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.ArmorStand;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
@@ -26,7 +30,10 @@ import static de.rapha149.displayutils.util.DisplayUtils.*;
  */
 public class HologramUtil {
 
+    private static final Set<EntityMetadataField> NAME_FIELDS = Collections.unmodifiableSet(EnumSet.of(EntityMetadataField.CUSTOM_NAME, EntityMetadataField.CUSTOM_NAME_VISIBLE));
+
     private static Map<String, HologramData> holograms = new HashMap<>();
+    private static WorldPartition<HologramData> worldHolograms = new WorldPartition<>();
 
     /**
      * Internal method.
@@ -74,8 +81,10 @@ public class HologramUtil {
         BukkitTask task = updateInterval == null ? null : Bukkit.getScheduler().runTaskTimer(plugin,
                 () -> updateHologram(identifier), updateInterval, updateInterval);
 
-        holograms.put(identifier, hologram.hasPlayerModifier() ? new PlayerHologramData(hologram, armorStands, task) :
-                new GeneralHologramData(hologram, armorStands, task));
+        HologramData data = hologram.hasPlayerModifier() ? new PlayerHologramData(hologram, armorStands, task) :
+                new GeneralHologramData(hologram, armorStands, task);
+        holograms.put(identifier, data);
+        worldHolograms.put(hologram.getLoc().getWorld().getUID(), identifier, data);
         updateHologram(identifier);
     }
 
@@ -91,11 +100,12 @@ public class HologramUtil {
         if (data == null)
             return false;
 
+        worldHolograms.remove(data.hologram.getLoc().getWorld().getUID(), identifier);
         if (data.task != null)
             data.task.cancel();
 
-        List<Object> packets = Collections.singletonList(getDestroyPacket(data));
-        Bukkit.getOnlinePlayers().forEach(player -> wrapper.sendPackets(player, packets));
+        World world = data.hologram.getLoc().getWorld();
+        PacketQueue.broadcast(world.getPlayers(), PacketPriority.LOW, world.getUID(), Collections.singletonList(getDestroyPacket(data)), null);
         return true;
     }
 
@@ -146,25 +156,29 @@ public class HologramUtil {
         boolean filterPlayers = allowedPlayers != null;
 
         if (filterPlayers && !data.initializedPlayers.isEmpty()) {
-            List<Object> packets = Collections.singletonList(getDestroyPacket(data));
+            List<Player> removedPlayers = new ArrayList<>();
             data.initializedPlayers.removeIf(uuid -> {
                 if (!allowedPlayers.contains(uuid)) {
                     Player player = Bukkit.getPlayer(uuid);
                     if (player != null)
-                        wrapper.sendPackets(player, packets);
+                        removedPlayers.add(player);
                     return true;
                 }
 
                 return false;
             });
+
+            if (!removedPlayers.isEmpty())
+                PacketQueue.broadcast(removedPlayers, PacketPriority.LOW, Collections.singletonList(getDestroyPacket(data)));
         }
 
-        List<Player> players = Bukkit.getOnlinePlayers().stream().filter(player -> isInCorrectWorld(player, hologram) &&
-                                                                                   (!filterPlayers || allowedPlayers.contains(player.getUniqueId()))).collect(Collectors.toList());
+        World world = hologram.getLoc().getWorld();
+        List<Player> players = world.getPlayers();
+        if (filterPlayers)
+            players.removeIf(player -> !allowedPlayers.contains(player.getUniqueId()));
         if (players.isEmpty())
             return;
 
-        Map<Player, List<Object>> packets = new HashMap<>();
         boolean playerSpecific = hologram.hasPlayerModifier();
         List<String> lines = hologram.getGeneralModifier() != null ? Collections.unmodifiableList(hologram.getGeneralModifier().modify(hologram.getLines())) : hologram.getLines();
 
@@ -180,10 +194,8 @@ public class HologramUtil {
                 }
             }
 
-            for (Player player : uninitialized) {
-                packets.put(player, initPackets);
-                data.initializedPlayers.add(player.getUniqueId());
-            }
+            PacketQueue.broadcast(uninitialized, PacketPriority.LOW, world.getUID(), initPackets, null);
+            uninitialized.forEach(player -> data.initializedPlayers.add(player.getUniqueId()));
         }
 
         if (playerSpecific) {
@@ -199,7 +211,8 @@ public class HologramUtil {
                     if (previousLines == null || !previousLines.get(i).equals(line)) {
                         ArmorStand armorStand = data.armorStands.get(i);
                         setCustomName(armorStand, line);
-                        packets.computeIfAbsent(player, p -> new ArrayList<>()).add(wrapper.getEntityMetadataPacket(armorStand));
+                        PacketQueue.send(player, PacketPriority.LOW, world.getUID(), wrapper.getEntityMetadataPacket(armorStand, NAME_FIELDS),
+                                PacketKey.metadata(armorStand.getEntityId(), NAME_FIELDS));
                     }
                 }
             }
@@ -208,36 +221,32 @@ public class HologramUtil {
             List<String> previousLines = generalData.previousLines;
 
             List<Object> generalPackets = new ArrayList<>();
+            List<PacketKey> generalKeys = new ArrayList<>();
             for (int i = 0; i < lines.size(); i++) {
                 String line = lines.get(i);
                 if (previousLines == null || !previousLines.get(i).equals(line)) {
                     ArmorStand armorStand = data.armorStands.get(i);
                     setCustomName(armorStand, line);
-                    generalPackets.add(wrapper.getEntityMetadataPacket(armorStand));
+                    generalPackets.add(wrapper.getEntityMetadataPacket(armorStand, NAME_FIELDS));
+                    generalKeys.add(PacketKey.metadata(armorStand.getEntityId(), NAME_FIELDS));
                 }
             }
 
-            for (Player player : players) {
-                if (!packets.containsKey(player)) // previously uninitialized players are already in this map and don't need this packets
-                    packets.put(player, generalPackets);
-            }
+            // previously uninitialized players already received the current lines with the init packets
+            players.removeAll(new HashSet<>(uninitialized));
+            PacketQueue.broadcast(players, PacketPriority.LOW, world.getUID(), generalPackets, generalKeys);
 
             generalData.previousLines = lines;
         }
-
-        packets.forEach(wrapper::sendPackets);
     }
 
     /**
-     * Respawns a hologram for a player.
+     * Respawns a hologram for a player. The player has to be in the hologram's world.
      * @param player The player to respawn the hologram for.
      * @param data The data of the hologram to respawn.
      */
     private static void respawnHologram(Player player, HologramData data) {
         Hologram hologram = data.hologram;
-        if (!isInCorrectWorld(player, hologram))
-            return;
-
         UUID uuid = player.getUniqueId();
         List<UUID> players = hologram.getPlayers();
         if (players != null && players.contains(uuid))
@@ -260,24 +269,15 @@ public class HologramUtil {
         for (int i = 0; i < data.armorStands.size(); i++) {
             ArmorStand armorStand = data.armorStands.get(i);
             setCustomName(armorStand, lines.get(i));
-            packets.add(wrapper.getSpawnLivingEntityPacket(armorStand));
+            // the packet may reference the armor stand's live metadata, so it is encoded before the name is set for another player
+            packets.add(wrapper.encodePacket(wrapper.getSpawnLivingEntityPacket(armorStand)));
         }
 
-        wrapper.sendPackets(player, packets);
+        PacketQueue.send(player, PacketPriority.LOW, hologram.getLoc().getWorld().getUID(), packets);
         if (!data.initializedPlayers.contains(uuid))
             data.initializedPlayers.add(uuid);
     }
 
-    /**
-     * Internal method. Checks if a player is in the same world as a hologram.
-     * @param player The player to check.
-     * @param hologram The hologram to check.
-     * @return Whether the player is in the same world as the hologram.
-     */
-    private static boolean isInCorrectWorld(Player player, Hologram hologram) {
-        return player.getWorld().getUID().equals(hologram.getLoc().getWorld().getUID());
-    }
-
     /**
      * Internal method. Sets the name of an armor stand. If the name is blank or null, the custom name visible flag will be set to false.
      * @param armorStand The armor stand to set the name for.
@@ -309,29 +309,30 @@ public class HologramUtil {
 
         @EventHandler
         public void onJoin(PlayerJoinEvent event) {
-            updateHolograms();
+            worldHolograms.get(event.getPlayer().getWorld().getUID()).forEach(HologramUtil::updateHologram);
         }
 
         @EventHandler
         public void onQuit(PlayerQuitEvent event) {
-            UUID uuid = event.getPlayer().getUniqueId();
-            for (HologramData data : holograms.values()) {
-                data.initializedPlayers.remove(uuid);
-                if (data.hologram.hasPlayerModifier())
-                    ((PlayerHologramData) data).previousLines.remove(uuid);
-            }
+            Player player = event.getPlayer();
+            // the player is only initialized for holograms in their current world, see onChangedWorld
+            leaveWorld(player.getUniqueId(), player.getWorld().getUID());
         }
 
         @EventHandler
         public void onChangedWorld(PlayerChangedWorldEvent event) {
             Player player = event.getPlayer();
-            for (HologramData data : holograms.values()) {
-                if (!isInCorrectWorld(player, data.hologram)) {
-                    data.initializedPlayers.remove(player.getUniqueId());
-                    continue;
-                }
+            // hologram packets for the previous world that are still queued would spawn the armor stands in the new world
+            PacketQueue.discard(player, event.getFrom().getUID());
+            leaveWorld(player.getUniqueId(), event.getFrom().getUID());
+            worldHolograms.get(player.getWorld().getUID()).forEach(data -> respawnHologram(player, data));
+        }
 
-                respawnHologram(player, data);
+        private void leaveWorld(UUID uuid, UUID worldId) {
+            for (HologramData data : worldHolograms.get(worldId)) {
+                data.initializedPlayers.remove(uuid);
+                if (data.hologram.hasPlayerModifier())
+                    ((PlayerHologramData) data).previousLines.remove(uuid);
             }
         }
     }
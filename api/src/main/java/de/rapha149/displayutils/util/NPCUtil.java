@@ -1,18 +1,34 @@
 package de.rapha149.displayutils.util;
 
 import de.rapha149.displayutils.display.npc.NPC;
+import de.rapha149.displayutils.display.npc.NPCBuilder;
+import de.rapha149.displayutils.display.npc.NPCSkin;
 import de.rapha149.displayutils.display.scoreboard.TeamOptionsBuilder;
 import de.rapha149.displayutils.display.scoreboard.TeamOptionStatus;
+import de.rapha149.displayutils.util.PacketQueue.PacketKey;
+import de.rapha149.displayutils.util.PacketQueue.PacketKeyType;
+import de.rapha149.displayutils.util.PacketQueue.PacketPriority;
+import de.rapha149.displayutils.version.EntityMetadataField;
+import de.rapha149.displayutils.version.IncomingPacketType;
+import de.rapha149.displayutils.version.NPCEntity;
 import de.rapha149.displayutils.version.ScoreboardAction;
 import de.rapha149.displayutils.version.UseEntityAction;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.*;
+import org.bukkit.plugin.IllegalPluginAccessException;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static de.rapha149.displayutils.util.DisplayUtils.*;
@@ -22,11 +38,26 @@ import static de.rapha149.displayutils.util.DisplayUtils.*;
  */
 public class NPCUtil {
 
+    private static final double TWO_PI = 2 * Math.PI;
+    private static final Set<EntityMetadataField> SNEAKING_FIELDS = Collections.unmodifiableSet(EnumSet.of(EntityMetadataField.FLAGS, EntityMetadataField.POSE));
+
     private static List<NPCTeam> teams;
+    private static NPCListener listener;
+    private static VisibilityEngine engine;
+
+    private static int currentTick;
+    private static Set<NPCData> throttledNPCs = new LinkedHashSet<>();
+    private static Deque<InfoRemoval> infoRemovals = new ArrayDeque<>();
+
+    private static double moveThresholdSquared = 0.01;
+    private static float angleThreshold = 2;
 
-    private static Map<String, NPCData> npcs = new HashMap<>();
-    private static Map<String, NPCData> lookAtPlayerNPCs = new HashMap<>();
-    private static Map<String, NPCData> matchSneakingNPCs = new HashMap<>();
+    private static Map<String, NPCData> npcs = new ConcurrentHashMap<>();
+    // copied on write so it can be read from netty threads without locking
+    private static volatile IntObjectMap<NPCData> npcsByEntityId = new IntObjectHashMap<>();
+    private static SpatialGrid<NPCData> grid = new SpatialGrid<>();
+    private static WorldPartition<NPCData> worldNPCs = new WorldPartition<>();
+    private static WorldPartition<NPCData> matchSneakingNPCs = new WorldPartition<>();
 
     /**
      * Internal method.
@@ -48,7 +79,90 @@ public class NPCUtil {
             wrapper.setTeamOptions(team.team, builder.build());
         });
 
-        Bukkit.getPluginManager().registerEvents(new NPCListener(), plugin);
+        PacketDispatcher.subscribe(IncomingPacketType.USE_ENTITY, (player, packet) -> {
+            Integer id = wrapper.getIdFromUseEntityPacket(packet);
+            if (id != null && wrapper.getActionFromUseEntityPacket(packet) != UseEntityAction.ATTACK) {
+                NPCData data = npcsByEntityId.get((int) id);
+                if (data != null) {
+                    UUID uuid = player.getUniqueId();
+                    long now = System.nanoTime();
+                    Long until = data.cooldowns.get(uuid);
+                    if (until != null && until - now > 0)
+                        return true;
+
+                    // the cooldown is in ticks, one tick is 50 milliseconds
+                    long newUntil = now + data.npc.getListenerCooldown() * 50_000_000L;
+                    if (until == null ? data.cooldowns.putIfAbsent(uuid, newUntil) != null : !data.cooldowns.replace(uuid, until, newUntil))
+                        return true;
+
+                    data.npc.getUseListener().onUseNPC(player);
+                }
+            }
+
+            return true;
+        });
+
+        listener = new NPCListener();
+        Bukkit.getPluginManager().registerEvents(listener, plugin);
+        PacketQueue.addTickTask(() -> {
+            currentTick++;
+            processInfoRemovals();
+            processThrottledLookAts();
+            listener.processMoves();
+            if (engine != null)
+                engine.tick();
+        });
+    }
+
+    /**
+     * Internal method. Releases the encoded packets of all NPCs when the plugin is disabled.
+     */
+    static void disable() {
+        npcs.values().forEach(NPCData::invalidatePackets);
+    }
+
+    /**
+     * Sets how much a player has to move or turn before the NPCs around them are updated. <br>
+     * Smaller movements are ignored until they add up to the threshold, which saves a lot of visibility and look-at checks for players that barely move.
+     * The defaults are 0.1 blocks and 2 degrees. Teleports and respawns are always handled.
+     *
+     * @param distance The distance in blocks a player has to move.
+     * @param angle The angle in degrees a player has to turn their head.
+     * @throws IllegalArgumentException If the distance or the angle is negative.
+     */
+    public static void setMoveThreshold(double distance, float angle) {
+        if (distance < 0 || angle < 0)
+            throw new IllegalArgumentException("The thresholds must not be negative");
+
+        moveThresholdSquared = distance * distance;
+        angleThreshold = angle;
+    }
+
+    /**
+     * Enables the scheduled visibility engine. <br>
+     * Instead of checking which NPCs to spawn and despawn whenever a player moves, the online players are split into shards and one shard is checked per tick.
+     * Players that joined, teleported or respawned are checked first. If checking the players takes longer than the time budget, the remaining players are checked in the next tick.
+     * This trades a small delay for a predictable cost per tick, e.g. when a lot of players are teleported at once. NPCs still look at players on every move.
+     *
+     * @param shards The amount of shards to split the players into. Every player is checked at least every that many ticks.
+     * @param budgetMillis The time in milliseconds that may be spent checking players per tick.
+     * @throws IllegalArgumentException If the amount of shards or the time budget is not positive.
+     */
+    public static void enableScheduledVisibility(int shards, double budgetMillis) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("The amount of shards must be positive");
+        if (budgetMillis <= 0)
+            throw new IllegalArgumentException("The time budget must be positive");
+
+        engine = new VisibilityEngine(shards, (long) (budgetMillis * 1_000_000));
+    }
+
+    /**
+     * Disables the scheduled visibility engine, see {@link #enableScheduledVisibility(int, double)}.
+     * NPCs are checked whenever a player moves again.
+     */
+    public static void disableScheduledVisibility() {
+        engine = null;
     }
 
     /**
@@ -59,24 +173,91 @@ public class NPCUtil {
      * @param npc The NPC to add. Create with {@link de.rapha149.displayutils.display.npc.NPCBuilder}.
      */
     public static void addNPC(NPC npc) {
+        addNPCs(Collections.singletonList(npc));
+    }
+
+    /**
+     * Adds multiple NPCs to the server, see {@link #addNPC(NPC)}. <br>
+     * All NPCs are registered first and then checked once per player, so adding a lot of NPCs at once is a lot cheaper than adding them one by one.
+     *
+     * @param npcs The NPCs to add. Create with {@link de.rapha149.displayutils.display.npc.NPCBuilder}.
+     * @throws IllegalArgumentException If an NPC with the identifier of one of the NPCs already exists or two of the NPCs have the same identifier. In that case none of the NPCs are added.
+     */
+    public static void addNPCs(Collection<NPC> npcs) {
         checkUsable();
 
-        String identifier = npc.getIdentifier();
-        if (npcs.containsKey(identifier))
-            throw new IllegalArgumentException("NPC with identifier " + identifier + " already exists");
+        Set<String> identifiers = new HashSet<>();
+        for (NPC npc : npcs) {
+            String identifier = npc.getIdentifier();
+            if (NPCUtil.npcs.containsKey(identifier) || !identifiers.add(identifier))
+                throw new IllegalArgumentException("NPC with identifier " + identifier + " already exists");
+        }
 
-        Player npcPlayer = wrapper.createPlayer(npc);
-        wrapper.setSneaking(npcPlayer, npc.isSneaking());
+        Set<NPCData> added = new LinkedHashSet<>();
+        for (NPC npc : npcs) {
+            NPCData data = new NPCData(npc, new NPCEntity(wrapper.nextEntityId(), npc));
+            data.index();
+            NPCUtil.npcs.put(npc.getIdentifier(), data);
+            worldNPCs.put(data.worldId, npc.getIdentifier(), data);
 
-        NPCData data = new NPCData(npc, npcPlayer);
-        npcs.put(identifier, data);
+            if (npc.isMatchSneakingWithPlayer())
+                matchSneakingNPCs.put(data.worldId, npc.getIdentifier(), data);
+            added.add(data);
+        }
 
-        if (npc.isLookAtPlayer())
-            lookAtPlayerNPCs.put(identifier, data);
-        if (npc.isMatchSneakingWithPlayer())
-            matchSneakingNPCs.put(identifier, data);
+        updateEntityIds(byEntityId -> added.forEach(data -> byEntityId.put(data.entity.getEntityId(), data)));
 
-        Bukkit.getOnlinePlayers().forEach(data::updateVisibility);
+        // only the npcs in the cell the player was last evaluated in can be in range
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            for (NPCData data : listener.getEvaluatedNPCs(player))
+                if (added.contains(data))
+                    data.updateVisibility(player);
+        }
+    }
+
+    /**
+     * Adds an NPC to the server once it is available, e.g. after its skin was resolved with a {@link de.rapha149.displayutils.display.npc.NPCSkinResolver}:
+     * <pre>{@code
+     * NPCUtil.addNPC(resolver.resolve("Notch").thenApply(skin -> new NPCBuilder("notch", "Notch", skin, loc, listener).build()));
+     * }</pre>
+     * The NPC is added on the main thread, so the server doesn't have to wait for the NPC to become available.
+     *
+     * @param npc The future that is completed with the NPC to add.
+     * @return A future that is completed when the NPC was added.
+     * It is completed exceptionally with the cause of the failure if the given future or {@link #addNPC(NPC)} fails,
+     * or with an {@link IllegalStateException} if the plugin was disabled before the NPC was available.
+     * @see #addNPC(NPC)
+     */
+    public static CompletableFuture<Void> addNPC(CompletableFuture<NPC> npc) {
+        checkUsable();
+
+        CompletableFuture<Void> added = new CompletableFuture<>();
+        npc.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                added.completeExceptionally(throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable);
+                return;
+            }
+
+            if (!plugin.isEnabled()) {
+                added.completeExceptionally(new IllegalStateException("The plugin was disabled before the NPC was available"));
+                return;
+            }
+
+            try {
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    try {
+                        addNPC(result);
+                        added.complete(null);
+                    } catch (Exception e) {
+                        added.completeExceptionally(e);
+                    }
+                });
+            } catch (IllegalPluginAccessException e) {
+                // the plugin was disabled after the check above
+                added.completeExceptionally(new IllegalStateException("The plugin was disabled before the NPC was available", e));
+            }
+        });
+        return added;
     }
 
     /**
@@ -86,22 +267,184 @@ public class NPCUtil {
      * @return True if an NPC with that identifier existed and was removed, false otherwise.
      */
     public static boolean removeNPC(String identifier) {
+        return removeNPCs(Collections.singletonList(identifier)) == 1;
+    }
+
+    /**
+     * Removes multiple NPCs from the server. <br>
+     * Each player is only sent a single packet that destroys all of the removed NPCs they could see.
+     *
+     * @param identifiers The identifiers of the NPCs to remove.
+     * @return The amount of NPCs that existed and were removed.
+     */
+    public static int removeNPCs(Collection<String> identifiers) {
+        checkUsable();
+
+        List<NPCData> removed = new ArrayList<>(identifiers.size());
+        for (String identifier : identifiers) {
+            NPCData data = npcs.remove(identifier);
+            if (data == null)
+                continue;
+
+            worldNPCs.remove(data.worldId, identifier);
+            data.unindex();
+            matchSneakingNPCs.remove(data.worldId, identifier);
+            throttledNPCs.remove(data);
+            data.invalidatePackets();
+            removed.add(data);
+        }
+        if (removed.isEmpty())
+            return 0;
+
+        updateEntityIds(byEntityId -> removed.forEach(data -> byEntityId.remove(data.entity.getEntityId())));
+
+        Map<Integer, List<Integer>> destroyed = new HashMap<>();
+        for (NPCData data : removed) {
+            BitSet players = data.currentPlayers;
+            for (int i = players.nextSetBit(0); i >= 0; i = players.nextSetBit(i + 1))
+                destroyed.computeIfAbsent(i, index -> new ArrayList<>()).add(data.entity.getEntityId());
+        }
+
+        // players that could see the same npcs share the encoded packet
+        Map<List<Integer>, List<Player>> viewers = new HashMap<>();
+        destroyed.forEach((index, entityIds) -> {
+            Player player = PlayerIndex.getPlayer(index);
+            if (player != null)
+                viewers.computeIfAbsent(entityIds, list -> new ArrayList<>()).add(player);
+        });
+        viewers.forEach((entityIds, players) -> PacketQueue.broadcast(players, PacketPriority.HIGH,
+                Collections.singletonList(wrapper.getDestroyEntitiesPacket(entityIds.stream().mapToInt(Integer::intValue).toArray()))));
+
+        return removed.size();
+    }
+
+    /**
+     * Moves an NPC to another location.
+     * Players that can see the NPC before and after the move are only sent a teleport packet, players for which the visibility changes are sent spawn or destroy packets. <br>
+     * If the location is in another world, the NPC is removed and added again.
+     *
+     * @param identifier The identifier of the NPC.
+     * @param loc The new location of the NPC.
+     * @return True if an NPC with that identifier exists, false otherwise.
+     */
+    public static boolean teleportNPC(String identifier, Location loc) {
         checkUsable();
+        Objects.requireNonNull(loc, "The location cannot be null");
 
-        NPCData data = npcs.remove(identifier);
+        NPCData data = npcs.get(identifier);
         if (data == null)
             return false;
 
-        lookAtPlayerNPCs.remove(identifier);
-        matchSneakingNPCs.remove(identifier);
+        NPC npc = new NPCBuilder(data.npc).setLocation(loc).build();
+        // the previous location may be the same object as the new one, so the indexed copy is compared and removed
+        if (!loc.getWorld().getUID().equals(data.worldId)) {
+            removeNPC(identifier);
+            addNPC(npc);
+            return true;
+        }
 
-        List<Object> packets = Collections.singletonList(wrapper.getDestroyEntitiesPacket(Collections.singletonList(data.npcPlayer)));
-        for (UUID uuid : data.currentPlayers) {
-            Player player = Bukkit.getPlayer(uuid);
-            if (player != null)
-                wrapper.sendPackets(player, packets);
+        data.unindex();
+        data.setNPC(npc);
+        data.index();
+
+        List<Player> viewers = PlayerIndex.getPlayers(data.currentPlayers);
+        if (!viewers.isEmpty()) {
+            PacketQueue.broadcast(viewers, PacketPriority.HIGH, data.worldId, Arrays.asList(wrapper.encodeEntityTeleportPacket(data.entity),
+                    wrapper.encodeEntityHeadRotationPacket(data.entity.getEntityId(), toAngle(loc.getYaw()))), null);
         }
 
+        loc.getWorld().getPlayers().forEach(data::updateVisibility);
+        for (Player viewer : viewers) {
+            data.resetRotation(PlayerIndex.get(viewer));
+            data.updateDetail(viewer);
+        }
+        return true;
+    }
+
+    /**
+     * Changes whether an NPC is sneaking. Players that can see the NPC are only sent a metadata packet.
+     * If the NPC matches the sneaking state of each player, only the NPC instance is updated.
+     *
+     * @param identifier The identifier of the NPC.
+     * @param sneaking Whether the NPC should be sneaking.
+     * @return True if an NPC with that identifier exists, false otherwise.
+     */
+    public static boolean setNPCSneaking(String identifier, boolean sneaking) {
+        checkUsable();
+
+        NPCData data = npcs.get(identifier);
+        if (data == null)
+            return false;
+
+        NPC npc = new NPCBuilder(data.npc).setSneaking(sneaking).build();
+        data.setNPC(npc);
+        if (!npc.isMatchSneakingWithPlayer()) {
+            PacketQueue.broadcast(PlayerIndex.getPlayers(data.currentPlayers), PacketPriority.HIGH, data.worldId,
+                    Collections.singletonList(wrapper.getEntityMetadataPacket(data.entity, SNEAKING_FIELDS)), Collections.singletonList(data.metadataKey));
+        }
+        return true;
+    }
+
+    /**
+     * Changes whether the name tag of an NPC is visible. Players that can see the NPC are only sent packets that move the NPC to another team.
+     *
+     * @param identifier The identifier of the NPC.
+     * @param nameTagVisible Whether the name tag should be visible.
+     * @return True if an NPC with that identifier exists, false otherwise.
+     */
+    public static boolean setNPCNameTagVisible(String identifier, boolean nameTagVisible) {
+        checkUsable();
+
+        NPCData data = npcs.get(identifier);
+        if (data == null)
+            return false;
+
+        Object oldTeam = data.team;
+        NPC npc = new NPCBuilder(data.npc).setNameTagVisible(nameTagVisible).build();
+        data.setNPC(npc);
+        if (data.team != oldTeam) {
+            List<String> entries = Collections.singletonList(npc.getName());
+            PacketQueue.broadcast(PlayerIndex.getPlayers(data.currentPlayers), PacketPriority.HIGH,
+                    Arrays.asList(wrapper.getTeamPlayerActionPacket(oldTeam, entries, false), wrapper.getTeamPlayerActionPacket(data.team, entries, true)));
+        }
+        return true;
+    }
+
+    /**
+     * Changes the skin of an NPC.
+     * Because the skin is part of the NPC's profile, the NPC is respawned for the players that can see it.
+     *
+     * @param identifier The identifier of the NPC.
+     * @param skin The new skin of the NPC.
+     * @return True if an NPC with that identifier exists, false otherwise.
+     */
+    public static boolean setNPCSkin(String identifier, NPCSkin skin) {
+        checkUsable();
+
+        NPCData data = npcs.get(identifier);
+        if (data == null)
+            return false;
+
+        respawn(data, new NPCBuilder(data.npc).setSkin(skin).build());
+        return true;
+    }
+
+    /**
+     * Changes the name of an NPC.
+     * Because the name is part of the NPC's profile, the NPC is respawned for the players that can see it.
+     *
+     * @param identifier The identifier of the NPC.
+     * @param name The new name of the NPC. Should be unique. A name longer than 16 characters will most likely result in the player being kicked.
+     * @return True if an NPC with that identifier exists, false otherwise.
+     */
+    public static boolean setNPCName(String identifier, String name) {
+        checkUsable();
+
+        NPCData data = npcs.get(identifier);
+        if (data == null)
+            return false;
+
+        respawn(data, new NPCBuilder(data.npc).setName(name).build());
         return true;
     }
 
@@ -123,76 +466,269 @@ public class NPCUtil {
     }
 
     /**
-     * Internal listener for npc events.
+     * Updates the profile of the NPC and respawns it for the players that can currently see it.
+     * The NPC keeps its entity id, so it doesn't have to be registered again.
+     *
+     * @param data The data of the NPC.
+     * @param npc The changed NPC.
      */
-    private static class NPCListener implements Listener {
+    private static void respawn(NPCData data, NPC npc) {
+        List<Player> viewers = PlayerIndex.getPlayers(data.currentPlayers);
+        PacketQueue.broadcast(viewers, PacketPriority.HIGH, Arrays.asList(
+                wrapper.getDestroyEntitiesPacket(new int[]{data.entity.getEntityId()}),
+                wrapper.getPlayerInfoPacket(data.entity, false),
+                wrapper.getTeamPlayerActionPacket(data.team, Collections.singletonList(data.npc.getName()), false)));
 
-        @EventHandler
-        public void onJoin(PlayerJoinEvent event) {
-            Player player = event.getPlayer();
-            wrapper.sendPackets(player, teams.stream().map(team -> wrapper.getTeamActionPacket(team.team, ScoreboardAction.CREATE)).collect(Collectors.toList()));
+        data.setNPC(npc);
 
-            UUID uuid = player.getUniqueId();
-            wrapper.addIncomingPacketHandler(player, "displayutils_npcutil", packet -> {
-                if (!packet.getClass().getSimpleName().equals("PacketPlayInUseEntity"))
-                    return true;
+        for (Player viewer : viewers) {
+            int index = PlayerIndex.get(viewer);
+            data.resetRotation(index);
+            data.spawn(viewer, index);
+        }
+    }
+
+    /**
+     * Publishes a modified copy of the entity id map. Readers always see either the old or the new map, never one that is being modified.
+     *
+     * @param modifier The modification to apply to the copy.
+     */
+    private static synchronized void updateEntityIds(Consumer<IntObjectMap<NPCData>> modifier) {
+        IntObjectMap<NPCData> byEntityId = new IntObjectHashMap<>(npcsByEntityId.size() + 1);
+        byEntityId.putAll(npcsByEntityId);
+        modifier.accept(byEntityId);
+        npcsByEntityId = byEntityId;
+    }
 
-                Integer id = wrapper.getIdFromUseEntityPacket(packet);
-                if (id != null && wrapper.getActionFromUseEntityPacket(packet) != UseEntityAction.ATTACK) {
-                    npcs.values().stream().filter(data -> data.npcPlayer.getEntityId() == id).findFirst().ifPresent(data -> {
-                        if (data.cooldown.contains(uuid))
-                            return;
+    /**
+     * Removes the NPCs whose spawn packets were sent 20 ticks ago from the tablists of their viewers.
+     * All removals that are due for the same viewer are merged into a single player info packet.
+     */
+    private static void processInfoRemovals() {
+        if (infoRemovals.isEmpty() || infoRemovals.peek().tick > currentTick)
+            return;
 
-                        data.cooldown.add(uuid);
-                        Bukkit.getScheduler().runTaskLater(plugin, () -> data.cooldown.remove(uuid), data.npc.getListenerCooldown());
+        Map<Player, List<NPCEntity>> removals = new LinkedHashMap<>();
+        while (!infoRemovals.isEmpty() && infoRemovals.peek().tick <= currentTick) {
+            InfoRemoval removal = infoRemovals.poll();
+            if (removal.viewer.isOnline())
+                removals.computeIfAbsent(removal.viewer, viewer -> new ArrayList<>()).add(removal.entity);
+        }
 
-                        data.npc.getUseListener().onUseNPC(player);
-                    });
+        removals.forEach((viewer, entities) ->
+                PacketQueue.send(viewer, PacketPriority.HIGH, Collections.singletonList(wrapper.getPlayerInfoPacket(entities, false))));
+    }
+
+    /**
+     * Sends the rotation updates that were held back because of the NPCs' look at intervals once the intervals have passed.
+     */
+    private static void processThrottledLookAts() {
+        if (throttledNPCs.isEmpty())
+            return;
+
+        Iterator<NPCData> iterator = throttledNPCs.iterator();
+        while (iterator.hasNext()) {
+            NPCData data = iterator.next();
+            BitSet pending = data.pendingLookAts;
+            for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+                Player player = PlayerIndex.getPlayer(i);
+                if (player == null) {
+                    pending.clear(i);
+                    continue;
                 }
 
-                return true;
-            });
+                // the interval depends on the detail level the player is in now
+                if (currentTick - data.rotationTicks[i] < data.getLookAtInterval(data.updateDetailLevel(player, i)))
+                    continue;
+
+                pending.clear(i);
+                data.lookAt(player);
+            }
+
+            if (pending.isEmpty())
+                iterator.remove();
+        }
+    }
+
+    /**
+     * Converts degrees to a protocol angle, the same way the version wrappers do.
+     *
+     * @param degrees The angle in degrees.
+     * @return The protocol angle.
+     */
+    private static byte toAngle(float degrees) {
+        return (byte) ((degrees % 360) * 256 / 360);
+    }
+
+    /**
+     * Internal listener for npc events.
+     */
+    private static class NPCListener implements Listener {
+
+        private final Map<UUID, PlayerState> playerStates = new HashMap<>();
+        private final Set<Player> pendingMoves = new LinkedHashSet<>();
+        private final Location moveLoc = new Location(null, 0, 0, 0);
+
+        @EventHandler
+        public void onJoin(PlayerJoinEvent event) {
+            Player player = event.getPlayer();
+            PacketQueue.send(player, PacketPriority.HIGH, teams.stream().map(team -> wrapper.getTeamActionPacket(team.team, ScoreboardAction.CREATE)).collect(Collectors.toList()));
         }
 
         @EventHandler
         public void onFinishJoin(PlayerJoinFinishEvent event) {
             Player player = event.getPlayer();
-            npcs.values().forEach(data -> data.updateVisibility(player));
+            if (engine != null) {
+                engine.prioritize(player.getUniqueId());
+                return;
+            }
+
+            worldNPCs.get(player.getWorld().getUID()).forEach(data -> data.updateVisibility(player));
+            playerStates.put(player.getUniqueId(), new PlayerState(player.getWorld().getUID(), player.getLocation(moveLoc)));
         }
 
         @EventHandler
         public void onQuit(PlayerQuitEvent event) {
-            UUID uuid = event.getPlayer().getUniqueId();
-            npcs.values().forEach(data -> data.currentPlayers.remove(uuid));
+            Player player = event.getPlayer();
+            UUID uuid = player.getUniqueId();
+            // the player can only see and use npcs in their current world, see onChangedWorld
+            leaveWorld(player, player.getWorld().getUID());
+            PlayerIndex.remove(uuid);
+            playerStates.remove(uuid);
+            pendingMoves.remove(player);
+        }
+
+        /**
+         * The client drops all entities when changing worlds, so the player is removed from all NPCs of the previous world without sending packets.
+         * Packets for these NPCs that are still queued are dropped, otherwise they would spawn the NPCs in the new world.
+         * The NPCs of the new world are spawned by the teleport or respawn that caused the world change.
+         */
+        @EventHandler
+        public void onChangedWorld(PlayerChangedWorldEvent event) {
+            Player player = event.getPlayer();
+            PacketQueue.discard(player, event.getFrom().getUID());
+            leaveWorld(player, event.getFrom().getUID());
+            // the cell the player was evaluated in belongs to the previous world
+            playerStates.remove(player.getUniqueId());
+        }
+
+        private void leaveWorld(Player player, UUID worldId) {
+            UUID uuid = player.getUniqueId();
+            int index = PlayerIndex.get(player);
+            for (NPCData data : worldNPCs.get(worldId)) {
+                data.currentPlayers.clear(index);
+                data.resetRotation(index);
+                data.cooldowns.remove(uuid);
+            }
         }
 
         @EventHandler
         public void onMove(PlayerMoveEvent event) {
-            onMove(event.getPlayer());
+            pendingMoves.add(event.getPlayer());
         }
 
         @EventHandler
         public void onTeleport(PlayerTeleportEvent event) {
-            Bukkit.getScheduler().runTask(plugin, () -> onMove(event.getPlayer()));
+            onForcedMove(event.getPlayer());
         }
 
         @EventHandler
         public void onRespawn(PlayerRespawnEvent event) {
-            Bukkit.getScheduler().runTask(plugin, () -> onMove(event.getPlayer()));
+            onForcedMove(event.getPlayer());
+        }
+
+        private void onForcedMove(Player player) {
+            if (engine != null)
+                engine.prioritize(player.getUniqueId());
+            else {
+                // the player may have quit in the meantime, evaluating them would register them again
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (player.isOnline())
+                        onMove(player, true);
+                });
+            }
+        }
+
+        /**
+         * Handles the moves of the last tick. Each player is only evaluated once per tick, no matter how many move events they caused.
+         * If the scheduled visibility engine is enabled, the NPCs only look at the players and update their detail levels here and the visibility is left to the engine.
+         */
+        void processMoves() {
+            if (pendingMoves.isEmpty())
+                return;
+
+            for (Player player : pendingMoves) {
+                if (!player.isOnline())
+                    continue;
+
+                if (engine != null)
+                    updateDetails(player);
+                else
+                    onMove(player, false);
+            }
+            pendingMoves.clear();
+        }
+
+        private void updateDetails(Player player) {
+            for (NPCData npc : grid.get(player.getWorld().getUID(), SpatialGrid.getKey(player.getLocation(moveLoc))))
+                npc.updateDetail(player);
         }
 
-        private void onMove(Player player) {
-            List<NPCData> changed = npcs.values().stream().filter(data -> data.updateVisibility(player)).collect(Collectors.toList());
-            for (NPCData npc : lookAtPlayerNPCs.values())
-                if (!changed.contains(npc))
-                    npc.lookAt(player);
+        /**
+         * @param player The player.
+         * @return The NPCs in the grid cell the player was last evaluated in, or in the player's current cell if the player was not evaluated in their current world yet.
+         */
+        List<NPCData> getEvaluatedNPCs(Player player) {
+            UUID worldId = player.getWorld().getUID();
+            PlayerState state = playerStates.get(player.getUniqueId());
+            if (state != null && state.worldId.equals(worldId))
+                return grid.get(state.worldId, state.key);
+            return grid.get(worldId, SpatialGrid.getKey(player.getLocation(moveLoc)));
+        }
+
+        /**
+         * Only evaluates the NPCs in the player's grid cell, since all other NPCs are out of range.
+         * When the player leaves a cell, the NPCs of the previous cell that are not in the new cell are evaluated once more to despawn them.
+         * The NPCs of the previous world were already removed from the player when the player changed worlds.
+         * Moves below the threshold set with {@link #setMoveThreshold(double, float)} are ignored unless forced.
+         *
+         * @param player The player that moved.
+         * @param force Whether to evaluate the NPCs even if the player didn't move significantly.
+         */
+        void onMove(Player player, boolean force) {
+            UUID worldId = player.getWorld().getUID();
+            player.getLocation(moveLoc);
+            long key = SpatialGrid.getKey(moveLoc);
+            List<NPCData> current = grid.get(worldId, key);
+
+            PlayerState state = playerStates.get(player.getUniqueId());
+            if (state == null)
+                playerStates.put(player.getUniqueId(), new PlayerState(worldId, moveLoc));
+            else {
+                boolean sameWorld = state.worldId.equals(worldId);
+                if (!force && sameWorld && !state.isSignificant(moveLoc))
+                    return;
+
+                if (sameWorld && state.key != key) {
+                    Set<NPCData> currentSet = new HashSet<>(current);
+                    for (NPCData npc : grid.get(state.worldId, state.key))
+                        if (!currentSet.contains(npc))
+                            npc.updateVisibility(player);
+                }
+
+                state.update(worldId, moveLoc);
+            }
+
+            for (NPCData npc : current)
+                if (!npc.updateVisibility(player))
+                    npc.updateDetail(player);
         }
 
         @EventHandler
         public void onToggleSneak(PlayerToggleSneakEvent event) {
             Player player = event.getPlayer();
             boolean sneaking = event.isSneaking();
-            for (NPCData npc : matchSneakingNPCs.values())
+            for (NPCData npc : matchSneakingNPCs.get(player.getWorld().getUID()))
                 npc.matchSneaking(player, sneaking);
         }
     }
@@ -202,26 +738,83 @@ public class NPCUtil {
      */
     private static class NPCData {
 
-        final NPC npc;
-        final Player npcPlayer;
-        final List<UUID> currentPlayers = new ArrayList<>();
-        final List<UUID> cooldown = new ArrayList<>();
+        // read from the netty threads when the npc is used
+        volatile NPC npc;
+        final NPCEntity entity;
+        final double range;
+        final BitSet currentPlayers = new BitSet();
+        // the last rotation sent to each player (yaw and pitch angle packed into an int, -1 if none was sent) and the tick it was sent in, indexed by PlayerIndex
+        int[] sentRotations = new int[0];
+        int[] rotationTicks = new int[0];
+        final BitSet pendingLookAts = new BitSet();
+        // the players for which the npc is static because they are beyond its far distance, indexed by PlayerIndex
+        final BitSet farPlayers = new BitSet();
+        Object team;
+        // encoded packets shared by all players, built when they are first needed
+        List<ByteBuf> spawnPackets;
+        ByteBuf sneakingMetadata;
+        ByteBuf standingMetadata;
+        // the times (System#nanoTime) until which players can't use the npc again, accessed from the netty threads
+        final Map<UUID, Long> cooldowns = new ConcurrentHashMap<>();
+        final PacketKey lookKey;
+        final PacketKey headRotationKey;
+        final PacketKey metadataKey;
+        final Location playerLoc = new Location(null, 0, 0, 0);
+        // a copy of the location the npc was added to the grid with, the npc's location can be modified by the caller afterwards
+        Location indexedLoc;
+        UUID worldId;
 
-        NPCData(NPC npc, Player npcPlayer) {
+        NPCData(NPC npc, NPCEntity entity) {
             this.npc = npc;
-            this.npcPlayer = npcPlayer;
+            this.entity = entity;
+            range = Math.sqrt(npc.getMaxDistanceSquared());
+
+            int entityId = entity.getEntityId();
+            lookKey = PacketKey.entity(PacketKeyType.ENTITY_LOOK, entityId);
+            headRotationKey = PacketKey.entity(PacketKeyType.ENTITY_HEAD_ROTATION, entityId);
+            metadataKey = PacketKey.metadata(entityId, SNEAKING_FIELDS);
+            team = findTeam(npc);
         }
 
-        boolean isInRange(Player player) {
-            if (!player.getWorld().getUID().equals(npc.getLoc().getWorld().getUID()))
-                return false;
+        /**
+         * Replaces the NPC instance after the NPC was changed. The NPC entity is updated and the encoded packets are invalidated.
+         *
+         * @param npc The changed NPC.
+         */
+        void setNPC(NPC npc) {
+            this.npc = npc;
+            entity.update(npc);
+            team = findTeam(npc);
+            invalidatePackets();
+        }
+
+        /**
+         * Adds the NPC to the grid at its current location. The location is copied so the NPC can be removed from the same cells later.
+         */
+        void index() {
+            indexedLoc = npc.getLoc().clone();
+            worldId = indexedLoc.getWorld().getUID();
+            grid.add(this, indexedLoc, range);
+        }
+
+        /**
+         * Removes the NPC from the cells it was added to with {@link #index()}.
+         */
+        void unindex() {
+            grid.remove(this, indexedLoc, range);
+        }
 
+        private Object findTeam(NPC npc) {
+            return teams.stream().filter(team -> team.collidable == npc.isCollidable() && team.nameTagVisible == npc.isNameTagVisible())
+                    .findFirst().orElseThrow(() -> new IllegalStateException("No team found")).team;
+        }
+
+        // the player must be in the npc's world, callers only pass players from the npc's world partition or grid cells
+        boolean isInRange(Player player) {
             return player.getLocation().distanceSquared(npc.getLoc()) <= npc.getMaxDistanceSquared();
         }
 
         boolean isInView(Player player) {
-            if (!player.getWorld().getUID().equals(npc.getLoc().getWorld().getUID()))
-                return false;
             if (player.getLocation().distanceSquared(npc.getLoc()) < 0.01)
                 return true;
 
@@ -246,53 +839,351 @@ public class NPCUtil {
             if (!npc.isShownForPlayer(uuid))
                 return false;
 
-            if (currentPlayers.contains(uuid)) {
+            int index = PlayerIndex.get(player);
+            if (currentPlayers.get(index)) {
                 if (!isInRange(player)) {
-                    currentPlayers.remove(uuid);
-                    wrapper.sendPackets(player, Collections.singletonList(wrapper.getDestroyEntitiesPacket(Collections.singletonList(npcPlayer))));
+                    currentPlayers.clear(index);
+                    resetRotation(index);
+                    PacketQueue.send(player, PacketPriority.HIGH, worldId, Collections.singletonList(wrapper.getDestroyEntitiesPacket(new int[]{entity.getEntityId()})));
                     return true;
                 }
             } else if (isInRange(player) && isInView(player)) {
-                currentPlayers.add(uuid);
-                wrapper.sendPackets(player, Arrays.asList(
-                        wrapper.getPlayerInfoPacket(npcPlayer, true),
-                        wrapper.getNamedEntitySpawnPacket(npcPlayer),
-                        wrapper.getEntityMetadataPacket(npcPlayer),
-                        wrapper.getEntityHeadRotationPacket(npcPlayer, npc.getLoc().getYaw()),
-                        wrapper.getTeamPlayerActionPacket(teams.stream()
-                                        .filter(team -> team.collidable == npc.isCollidable() && team.nameTagVisible == npc.isNameTagVisible())
-                                        .findFirst().orElseThrow(() -> new IllegalStateException("No team found")).team,
-                                Collections.singletonList(npc.getName()), true)
-                ));
-
-                if (npc.isLookAtPlayer())
-                    lookAt(player);
-                if (npc.isMatchSneakingWithPlayer())
-                    matchSneaking(player, player.isSneaking());
-
-                Bukkit.getScheduler().runTaskLater(plugin, () ->
-                        wrapper.sendPackets(player, Collections.singletonList(wrapper.getPlayerInfoPacket(npcPlayer, false))), 20);
+                spawn(player, index);
                 return true;
             }
 
             return false;
         }
 
+        /**
+         * Spawns the NPC for the player without checking whether the player should see it.
+         *
+         * @param player The player to spawn the NPC for.
+         * @param index The index of the player, see {@link PlayerIndex}.
+         */
+        void spawn(Player player, int index) {
+            currentPlayers.set(index);
+            if (spawnPackets == null) {
+                spawnPackets = new ArrayList<>(5);
+                spawnPackets.add(wrapper.encodePacket(wrapper.getPlayerInfoPacket(entity, true)));
+                spawnPackets.add(wrapper.encodeNamedEntitySpawnPacket(entity));
+                spawnPackets.add(wrapper.encodePacket(wrapper.getEntityMetadataPacket(entity)));
+                spawnPackets.add(wrapper.encodeEntityHeadRotationPacket(entity.getEntityId(), toAngle(npc.getLoc().getYaw())));
+                spawnPackets.add(wrapper.encodePacket(wrapper.getTeamPlayerActionPacket(team, Collections.singletonList(npc.getName()), true)));
+            }
+
+            List<Object> packets = new ArrayList<>(spawnPackets.size());
+            spawnPackets.forEach(buf -> packets.add(buf.retainedDuplicate()));
+            PacketQueue.send(player, PacketPriority.HIGH, worldId, packets);
+            // the delay starts once the spawn packets were actually sent, they can stay queued for a while if the packet budget is exceeded
+            // not bound to the world, so the npc is removed from the tablist even if the player changes worlds right after the spawn packets were sent
+            PacketQueue.whenSent(player, PacketPriority.HIGH, null, () -> infoRemovals.add(new InfoRemoval(currentTick + 20, player, entity)));
+
+            updateDetail(player);
+            if (npc.isMatchSneakingWithPlayer())
+                matchSneaking(player, player.isSneaking());
+        }
+
+        /**
+         * Updates the rotation and the detail level of the NPC for a player that can see it after the player moved.
+         *
+         * @param player The player that moved.
+         */
+        void updateDetail(Player player) {
+            if (npc.isLookAtPlayer())
+                lookAt(player);
+            else if (npc.isMatchSneakingWithPlayer() && npc.hasDetailLevels()) {
+                int index = PlayerIndex.get(player);
+                if (currentPlayers.get(index))
+                    updateDetailLevel(player, index);
+            }
+        }
+
+        /**
+         * Determines the detail level of the NPC for the player, see {@link de.rapha149.displayutils.display.npc.NPCBuilder#setDetailDistances(int, int)}.
+         * Sneak toggles are ignored while the player is far away, so the sneaking state is matched again once the player comes closer.
+         * The location of the player is left in {@link #playerLoc}.
+         *
+         * @param player The player.
+         * @param index The index of the player, see {@link PlayerIndex}.
+         * @return The detail level.
+         */
+        DetailLevel updateDetailLevel(Player player, int index) {
+            player.getLocation(playerLoc);
+            if (!npc.hasDetailLevels())
+                return DetailLevel.NEAR;
+
+            Location npcLoc = npc.getLoc();
+            double x = playerLoc.getX() - npcLoc.getX();
+            double y = playerLoc.getY() - npcLoc.getY();
+            double z = playerLoc.getZ() - npcLoc.getZ();
+            double distanceSquared = x * x + y * y + z * z;
+            if (distanceSquared > npc.getFarDistanceSquared()) {
+                farPlayers.set(index);
+                return DetailLevel.FAR;
+            }
+
+            if (farPlayers.get(index)) {
+                farPlayers.clear(index);
+                if (npc.isMatchSneakingWithPlayer())
+                    matchSneaking(player, player.isSneaking());
+            }
+            return distanceSquared > npc.getNearDistanceSquared() ? DetailLevel.MID : DetailLevel.NEAR;
+        }
+
+        /**
+         * Sends the rotation towards the player to the player.
+         * Nothing is sent if the rotation would be the same as the last one, or it is postponed if the last one was sent less than the NPC's look at interval ago.
+         * Players in the mid detail level use the NPC's mid look at interval, players in the far detail level are not sent any rotation.
+         *
+         * @param player The player to look at.
+         */
         void lookAt(Player player) {
-            if (!currentPlayers.contains(player.getUniqueId()))
+            int index = PlayerIndex.get(player);
+            if (!currentPlayers.get(index))
+                return;
+
+            DetailLevel level = updateDetailLevel(player, index);
+            if (level == DetailLevel.FAR) {
+                pendingLookAts.clear(index);
+                return;
+            }
+
+            if (index >= sentRotations.length) {
+                int length = Math.max(index + 1, sentRotations.length * 2);
+                int oldLength = sentRotations.length;
+                sentRotations = Arrays.copyOf(sentRotations, length);
+                Arrays.fill(sentRotations, oldLength, length, -1);
+                rotationTicks = Arrays.copyOf(rotationTicks, length);
+            }
+
+            int interval = getLookAtInterval(level);
+            if (interval > 1 && sentRotations[index] != -1 && currentTick - rotationTicks[index] < interval) {
+                pendingLookAts.set(index);
+                throttledNPCs.add(this);
+                return;
+            }
+
+            // same math as Location#setDirection, but on primitives and with a reused location so no locations or vectors are cloned on every move
+            Location npcLoc = npc.getLoc();
+            double x = playerLoc.getX() - npcLoc.getX();
+            double y = playerLoc.getY() + player.getEyeHeight() - (npcLoc.getY() + NPCEntity.EYE_HEIGHT);
+            double z = playerLoc.getZ() - npcLoc.getZ();
+
+            float yaw;
+            float pitch;
+            if (x == 0 && z == 0) {
+                yaw = 0;
+                pitch = y > 0 ? -90 : 90;
+            } else {
+                double theta = Math.atan2(-x, z);
+                yaw = (float) Math.toDegrees((theta + TWO_PI) % TWO_PI);
+                pitch = (float) Math.toDegrees(Math.atan(-y / Math.sqrt(x * x + z * z)));
+            }
+
+            byte yawAngle = toAngle(yaw);
+            byte pitchAngle = toAngle(pitch);
+            int rotation = (yawAngle & 0xFF) << 8 | pitchAngle & 0xFF;
+            if (sentRotations[index] == rotation)
                 return;
 
-            Location loc = npcPlayer.getLocation().setDirection(player.getEyeLocation().subtract(npcPlayer.getEyeLocation()).toVector());
-            wrapper.sendPackets(player, wrapper.getUpdateRotationPackets(npcPlayer, loc.getYaw(), loc.getPitch()));
+            sentRotations[index] = rotation;
+            rotationTicks[index] = currentTick;
+
+            int entityId = entity.getEntityId();
+            PacketQueue.send(player, PacketPriority.HIGH, worldId, wrapper.encodeEntityLookPacket(entityId, yawAngle, pitchAngle, true), lookKey);
+            PacketQueue.send(player, PacketPriority.HIGH, worldId, wrapper.encodeEntityHeadRotationPacket(entityId, yawAngle), headRotationKey);
+        }
+
+        /**
+         * @param level The detail level of the NPC for a player.
+         * @return The amount of ticks between two rotation updates for a player in that detail level.
+         */
+        int getLookAtInterval(DetailLevel level) {
+            return level == DetailLevel.MID ? Math.max(npc.getLookAtInterval(), npc.getMidLookAtInterval()) : npc.getLookAtInterval();
+        }
+
+        void resetRotation(int index) {
+            if (index < sentRotations.length)
+                sentRotations[index] = -1;
+            pendingLookAts.clear(index);
+            farPlayers.clear(index);
         }
 
         void matchSneaking(Player player, boolean sneaking) {
-            if (!currentPlayers.contains(player.getUniqueId()))
+            int index = PlayerIndex.get(player);
+            if (!currentPlayers.get(index) || farPlayers.get(index))
                 return;
 
-            wrapper.setSneaking(npcPlayer, sneaking);
-            wrapper.sendPackets(player, Collections.singletonList(wrapper.getEntityMetadataPacket(npcPlayer)));
-            wrapper.setSneaking(npcPlayer, npc.isSneaking());
+            if (sneakingMetadata == null) {
+                entity.setSneaking(true);
+                sneakingMetadata = wrapper.encodePacket(wrapper.getEntityMetadataPacket(entity, SNEAKING_FIELDS));
+                entity.setSneaking(false);
+                standingMetadata = wrapper.encodePacket(wrapper.getEntityMetadataPacket(entity, SNEAKING_FIELDS));
+                entity.setSneaking(npc.isSneaking());
+            }
+
+            PacketQueue.send(player, PacketPriority.HIGH, worldId, (sneaking ? sneakingMetadata : standingMetadata).retainedDuplicate(), metadataKey);
+        }
+
+        /**
+         * Releases the encoded spawn and sneaking metadata packets. They are encoded again the next time they are needed.
+         * Must be called when the NPC changes and when the NPC is removed.
+         */
+        void invalidatePackets() {
+            if (spawnPackets != null) {
+                spawnPackets.forEach(ByteBuf::release);
+                spawnPackets = null;
+            }
+            if (sneakingMetadata != null) {
+                sneakingMetadata.release();
+                standingMetadata.release();
+                sneakingMetadata = null;
+                standingMetadata = null;
+            }
+        }
+    }
+
+    /**
+     * Internal enum for the detail levels of an NPC for a player, see {@link de.rapha149.displayutils.display.npc.NPCBuilder#setDetailDistances(int, int)}.
+     */
+    private enum DetailLevel {
+        /**
+         * The NPC looks at the player with its look at interval and matches the player's sneaking state.
+         */
+        NEAR,
+        /**
+         * The NPC looks at the player with its mid look at interval and matches the player's sneaking state.
+         */
+        MID,
+        /**
+         * The NPC is static.
+         */
+        FAR
+    }
+
+    /**
+     * Internal class that checks the visibility of the NPCs for a few players per tick.
+     */
+    private static class VisibilityEngine {
+
+        final int shards;
+        final long budgetNanos;
+        final Set<UUID> prioritized = new LinkedHashSet<>();
+        final Deque<UUID> shardPlayers = new ArrayDeque<>();
+        List<UUID> cyclePlayers = Collections.emptyList();
+        int shard;
+
+        VisibilityEngine(int shards, long budgetNanos) {
+            this.shards = shards;
+            this.budgetNanos = budgetNanos;
+        }
+
+        void prioritize(UUID uuid) {
+            prioritized.add(uuid);
+        }
+
+        /**
+         * Checks the prioritized players first and then the players of the current shard until the time budget is used up.
+         * At least one player is checked per tick so that the engine always makes progress.
+         */
+        void tick() {
+            long deadline = System.nanoTime() + budgetNanos;
+
+            Iterator<UUID> iterator = prioritized.iterator();
+            while (iterator.hasNext()) {
+                UUID uuid = iterator.next();
+                iterator.remove();
+                check(uuid, true);
+                if (System.nanoTime() >= deadline)
+                    return;
+            }
+
+            if (shardPlayers.isEmpty())
+                nextShard();
+            while (!shardPlayers.isEmpty()) {
+                check(shardPlayers.poll(), false);
+                if (System.nanoTime() >= deadline)
+                    return;
+            }
+        }
+
+        private void check(UUID uuid, boolean force) {
+            Player player = Bukkit.getPlayer(uuid);
+            if (player != null)
+                listener.onMove(player, force);
+        }
+
+        /**
+         * Queues the players of the next shard. The players are split into shards at the start of each cycle,
+         * so players that join during a cycle are checked from the next cycle on (or earlier, since joining players are prioritized).
+         */
+        private void nextShard() {
+            if (shard == 0)
+                cyclePlayers = Bukkit.getOnlinePlayers().stream().map(Player::getUniqueId).collect(Collectors.toList());
+
+            for (int i = shard; i < cyclePlayers.size(); i += shards)
+                shardPlayers.add(cyclePlayers.get(i));
+            shard = (shard + 1) % shards;
+        }
+    }
+
+    /**
+     * Internal class for an NPC that has to be removed from a player's tablist.
+     * The NPCs are added to the tablist when they are spawned so their skins load and removed 20 ticks later.
+     */
+    private static class InfoRemoval {
+
+        final int tick;
+        final Player viewer;
+        final NPCEntity entity;
+
+        InfoRemoval(int tick, Player viewer, NPCEntity entity) {
+            this.tick = tick;
+            this.viewer = viewer;
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * Internal class that stores the position and the grid cell a player was last evaluated at.
+     */
+    private static class PlayerState {
+
+        UUID worldId;
+        long key;
+        double x, y, z;
+        float yaw, pitch;
+
+        PlayerState(UUID worldId, Location loc) {
+            update(worldId, loc);
+        }
+
+        void update(UUID worldId, Location loc) {
+            this.worldId = worldId;
+            key = SpatialGrid.getKey(loc);
+            x = loc.getX();
+            y = loc.getY();
+            z = loc.getZ();
+            yaw = loc.getYaw();
+            pitch = loc.getPitch();
+        }
+
+        /**
+         * @param loc The new location of the player.
+         * @return Whether the player moved or turned more than the thresholds since the last evaluation.
+         */
+        boolean isSignificant(Location loc) {
+            double dx = loc.getX() - x;
+            double dy = loc.getY() - y;
+            double dz = loc.getZ() - z;
+            if (dx * dx + dy * dy + dz * dz >= moveThresholdSquared)
+                return true;
+
+            float yawDiff = Math.abs(loc.getYaw() - yaw) % 360;
+            if (yawDiff > 180)
+                yawDiff = 360 - yawDiff;
+            return yawDiff >= angleThreshold || Math.abs(loc.getPitch() - pitch) >= angleThreshold;
         }
     }
 
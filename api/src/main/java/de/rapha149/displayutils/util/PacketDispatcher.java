@@ -0,0 +1,91 @@
+package de.rapha149.displayutils.util;
+
+import de.rapha149.displayutils.version.IncomingPacketType;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static de.rapha149.displayutils.util.DisplayUtils.*;
+
+/**
+ * Internal class that dispatches incoming packets to the utils.
+ * Only one handler is added to each player's pipeline. It looks up the subscribers of a packet by the packet's class,
+ * so packets nobody subscribed to only cost a single map lookup.
+ */
+class PacketDispatcher {
+
+    static final String HANDLER_NAME = "displayutils";
+
+    private static volatile Map<Class<?>, PacketSubscriber[]> subscribers = new IdentityHashMap<>();
+
+    /**
+     * Subscribes to incoming packets of the given type.
+     * The subscriber is called on the netty thread of the player's connection.
+     *
+     * @param type The type of the packets to subscribe to.
+     * @param subscriber The subscriber.
+     */
+    static synchronized void subscribe(IncomingPacketType type, PacketSubscriber subscriber) {
+        Class<?> packetClass = wrapper.getIncomingPacketClass(type);
+        Map<Class<?>, PacketSubscriber[]> newSubscribers = new IdentityHashMap<>(subscribers);
+
+        PacketSubscriber[] previous = newSubscribers.get(packetClass);
+        PacketSubscriber[] current;
+        if (previous == null)
+            current = new PacketSubscriber[]{subscriber};
+        else {
+            current = Arrays.copyOf(previous, previous.length + 1);
+            current[previous.length] = subscriber;
+        }
+
+        newSubscribers.put(packetClass, current);
+        subscribers = newSubscribers;
+    }
+
+    /**
+     * Adds the dispatching handler to the player's pipeline.
+     *
+     * @param player The player.
+     */
+    static void inject(Player player) {
+        wrapper.addIncomingPacketHandler(player, HANDLER_NAME, packet -> dispatch(player, packet));
+    }
+
+    /**
+     * Passes the packet to all subscribers of its class.
+     *
+     * @param player The player that sent the packet.
+     * @param packet The packet.
+     * @return False if any subscriber cancelled the packet, true otherwise.
+     */
+    private static boolean dispatch(Player player, Object packet) {
+        PacketSubscriber[] packetSubscribers = subscribers.get(packet.getClass());
+        if (packetSubscribers == null)
+            return true;
+
+        boolean result = true;
+        for (PacketSubscriber subscriber : packetSubscribers) {
+            if (!subscriber.onPacket(player, packet))
+                result = false;
+        }
+        return result;
+    }
+
+    /**
+     * Internal functional interface for subscribers of incoming packets.
+     */
+    @FunctionalInterface
+    interface PacketSubscriber {
+
+        /**
+         * Called when the player sent a packet the subscriber subscribed to.
+         *
+         * @param player The player that sent the packet.
+         * @param packet The packet.
+         * @return False to cancel the packet being received by the server, true otherwise.
+         */
+        boolean onPacket(Player player, Object packet);
+    }
+}
@@ -0,0 +1,469 @@
+package de.rapha149.displayutils.util;
+
+import de.rapha149.displayutils.version.EntityMetadataField;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.*;
+
+import static de.rapha149.displayutils.util.DisplayUtils.*;
+
+/**
+ * Internal class that batches the packets sent by the utils.
+ * Packets are queued per player and handed to the player's channel once per tick as a single batch that is written and flushed on the channel's event loop.
+ * Packets that are queued with a {@link PacketKey} supersede previously queued packets with the same key,
+ * so only the latest rotation, metadata or team update for an entity or team is actually sent.
+ * Packets that are sent to multiple players can be broadcasted, which encodes them once and queues retained duplicates of the encoded buffer.
+ * Packets for entities in a world can be queued with the id of that world, so they can be discarded with {@link #discard(Player, UUID)} if the player leaves the world before they are sent.
+ * <p>
+ * Each packet is queued with a {@link PacketPriority}. If a packet budget is set, only that many packets are sent to a player per tick,
+ * higher priorities first. The remaining packets stay queued for the next tick.
+ */
+class PacketQueue {
+
+    private static final Map<UUID, PlayerQueue> queues = new LinkedHashMap<>();
+    private static final List<Runnable> tickTasks = new ArrayList<>();
+    private static int packetBudget = -1;
+
+    /**
+     * Internal method.
+     */
+    static void init() {
+        Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+            tickTasks.forEach(Runnable::run);
+            flush();
+        }, 1, 1);
+    }
+
+    /**
+     * Internal method. Releases and drops the packets that are still queued when the plugin is disabled.
+     */
+    static void disable() {
+        queues.values().forEach(PlayerQueue::release);
+        queues.clear();
+    }
+
+    /**
+     * Registers a task that runs every tick right before the queued packets are flushed,
+     * so the packets it queues are sent in the same tick instead of the next one.
+     *
+     * @param task The task to run.
+     */
+    static void addTickTask(Runnable task) {
+        tickTasks.add(task);
+    }
+
+    /**
+     * Sets the maximum amount of packets that are sent to a single player per tick.
+     *
+     * @param packetBudget The maximum amount of packets or -1 for no limit.
+     */
+    static void setPacketBudget(int packetBudget) {
+        PacketQueue.packetBudget = packetBudget;
+    }
+
+    /**
+     * Queues the packets for the player. The packets are sent with the next call of {@link #flush()}.
+     *
+     * @param player The player to send the packets to.
+     * @param priority The priority of the packets.
+     * @param packets The packets to send.
+     */
+    static void send(Player player, PacketPriority priority, List<Object> packets) {
+        send(player, priority, null, packets);
+    }
+
+    /**
+     * Queues the packets for the player. The packets are sent with the next call of {@link #flush()}.
+     *
+     * @param player The player to send the packets to.
+     * @param priority The priority of the packets.
+     * @param worldId The id of the world the packets are for or null if they are not bound to a world, see {@link #discard(Player, UUID)}.
+     * @param packets The packets to send.
+     */
+    static void send(Player player, PacketPriority priority, UUID worldId, List<Object> packets) {
+        if (packets.isEmpty())
+            return;
+
+        ArrayDeque<Entry> lane = getQueue(player).lanes.get(priority);
+        for (Object packet : packets)
+            lane.add(new Entry(packet, null, worldId));
+    }
+
+    /**
+     * Queues the packets for the player. The packets are sent with the next call of {@link #flush()}.
+     * Each packet that has a key supersedes a still queued packet with the same key, see {@link #send(Player, PacketPriority, Object, PacketKey)}.
+     *
+     * @param player The player to send the packets to.
+     * @param priority The priority of the packets.
+     * @param packets The packets to send.
+     * @param keys The keys of the packets or null if none of the packets have a key.
+     *             Must have the same size as the packets, packets without a key have null at their index.
+     */
+    static void send(Player player, PacketPriority priority, List<Object> packets, List<PacketKey> keys) {
+        send(player, priority, null, packets, keys);
+    }
+
+    /**
+     * Queues the packets for the player, see {@link #send(Player, PacketPriority, List, List)}.
+     *
+     * @param player The player to send the packets to.
+     * @param priority The priority of the packets.
+     * @param worldId The id of the world the packets are for or null if they are not bound to a world, see {@link #discard(Player, UUID)}.
+     * @param packets The packets to send.
+     * @param keys The keys of the packets or null if none of the packets have a key.
+     */
+    static void send(Player player, PacketPriority priority, UUID worldId, List<Object> packets, List<PacketKey> keys) {
+        for (int i = 0; i < packets.size(); i++) {
+            PacketKey key = keys != null ? keys.get(i) : null;
+            if (key != null)
+                send(player, priority, worldId, packets.get(i), key);
+            else
+                send(player, priority, worldId, Collections.singletonList(packets.get(i)));
+        }
+    }
+
+    /**
+     * Queues the packet for the player. If a packet with the same key is still queued for the player, that packet is dropped.
+     * Packets with the same key must always be queued with the same priority.
+     *
+     * @param player The player to send the packet to.
+     * @param priority The priority of the packet.
+     * @param packet The packet to send.
+     * @param key The key identifying what the packet updates.
+     */
+    static void send(Player player, PacketPriority priority, Object packet, PacketKey key) {
+        send(player, priority, null, packet, key);
+    }
+
+    /**
+     * Queues the packet for the player, see {@link #send(Player, PacketPriority, Object, PacketKey)}.
+     *
+     * @param player The player to send the packet to.
+     * @param priority The priority of the packet.
+     * @param worldId The id of the world the packet is for or null if it is not bound to a world, see {@link #discard(Player, UUID)}.
+     * @param packet The packet to send.
+     * @param key The key identifying what the packet updates.
+     */
+    static void send(Player player, PacketPriority priority, UUID worldId, Object packet, PacketKey key) {
+        PlayerQueue queue = getQueue(player);
+        Entry entry = new Entry(packet, key, worldId);
+        Entry previous = queue.keyed.put(key, entry);
+        if (previous != null) {
+            ReferenceCountUtil.release(previous.packet);
+            previous.packet = null;
+        }
+        queue.lanes.get(priority).add(entry);
+    }
+
+    /**
+     * Queues a task that runs once all packets that were queued for the player with the same priority before it were sent.
+     * Unlike the packets, the task doesn't count towards the packet budget. It doesn't run if the player quits or the packets are discarded before that.
+     *
+     * @param player The player.
+     * @param priority The priority of the packets to wait for.
+     * @param worldId The id of the world the packets are for or null if they are not bound to a world, see {@link #discard(Player, UUID)}.
+     * @param task The task to run.
+     */
+    static void whenSent(Player player, PacketPriority priority, UUID worldId, Runnable task) {
+        getQueue(player).lanes.get(priority).add(new Entry(null, null, worldId, task));
+    }
+
+    /**
+     * Queues the packets for all given players while only encoding each packet once.
+     * If there is only one player, the packets are queued as they are because encoding them on the server thread would not save anything.
+     * Packets that are already encoded (see {@link de.rapha149.displayutils.version.VersionWrapper#encodePacket(Object)}) are not encoded again and are released afterwards.
+     * Since the encoded buffers skip the packet objects, outgoing packet handlers of other plugins and
+     * {@link de.rapha149.displayutils.version.VersionWrapper#addOutgoingPacketHandler(Player, String, java.util.function.Predicate)} don't see broadcasted packets.
+     *
+     * @param players The players to send the packets to.
+     * @param priority The priority of the packets.
+     * @param packets The packets to send.
+     * @param keys The keys of the packets or null if none of the packets have a key, see {@link #send(Player, PacketPriority, List, List)}.
+     */
+    static void broadcast(Collection<? extends Player> players, PacketPriority priority, List<Object> packets, List<PacketKey> keys) {
+        broadcast(players, priority, null, packets, keys);
+    }
+
+    /**
+     * Queues the packets for all given players while only encoding each packet once, see {@link #broadcast(Collection, PacketPriority, List, List)}.
+     *
+     * @param players The players to send the packets to.
+     * @param priority The priority of the packets.
+     * @param worldId The id of the world the packets are for or null if they are not bound to a world, see {@link #discard(Player, UUID)}.
+     * @param packets The packets to send.
+     * @param keys The keys of the packets or null if none of the packets have a key.
+     */
+    static void broadcast(Collection<? extends Player> players, PacketPriority priority, UUID worldId, List<Object> packets, List<PacketKey> keys) {
+        if (players.isEmpty() || packets.isEmpty()) {
+            packets.forEach(ReferenceCountUtil::release);
+            return;
+        }
+        if (players.size() == 1) {
+            send(players.iterator().next(), priority, worldId, packets, keys);
+            return;
+        }
+
+        List<ByteBuf> encoded = new ArrayList<>(packets.size());
+        try {
+            for (Object packet : packets)
+                encoded.add(packet instanceof ByteBuf ? (ByteBuf) packet : wrapper.encodePacket(packet));
+
+            for (Player player : players) {
+                List<Object> duplicates = new ArrayList<>(encoded.size());
+                for (ByteBuf buf : encoded)
+                    duplicates.add(buf.retainedDuplicate());
+                send(player, priority, worldId, duplicates, keys);
+            }
+        } finally {
+            encoded.forEach(ByteBuf::release);
+        }
+    }
+
+    /**
+     * Queues the packets for all given players while only encoding each packet once.
+     *
+     * @param players The players to send the packets to.
+     * @param priority The priority of the packets.
+     * @param packets The packets to send.
+     * @see #broadcast(Collection, PacketPriority, List, List)
+     */
+    static void broadcast(Collection<? extends Player> players, PacketPriority priority, List<Object> packets) {
+        broadcast(players, priority, packets, null);
+    }
+
+    /**
+     * Drops and releases the packets that are still queued for the player and were queued for the given world.
+     * Must be called when the player leaves the world, because the client drops all entities of the previous world
+     * and entities that are spawned by packets sent afterwards would never be destroyed.
+     *
+     * @param player The player.
+     * @param worldId The id of the world the player left.
+     */
+    static void discard(Player player, UUID worldId) {
+        PlayerQueue queue = queues.get(player.getUniqueId());
+        if (queue != null)
+            queue.discard(worldId);
+    }
+
+    /**
+     * Sends the queued packets of each player as one batch, see {@link de.rapha149.displayutils.version.VersionWrapper#sendPacketBatch(Player, List)}.
+     * If a packet budget is set, packets exceeding it stay queued for the next call.
+     */
+    static void flush() {
+        if (queues.isEmpty())
+            return;
+
+        Iterator<PlayerQueue> iterator = queues.values().iterator();
+        while (iterator.hasNext()) {
+            PlayerQueue queue = iterator.next();
+            if (!queue.player.isOnline()) {
+                queue.release();
+                iterator.remove();
+                continue;
+            }
+
+            List<Runnable> tasks = new ArrayList<>(0);
+            List<Object> packets = queue.poll(packetBudget, tasks);
+            if (!packets.isEmpty())
+                wrapper.sendPacketBatch(queue.player, packets);
+            tasks.forEach(Runnable::run);
+
+            if (queue.isEmpty())
+                iterator.remove();
+        }
+    }
+
+    private static PlayerQueue getQueue(Player player) {
+        return queues.computeIfAbsent(player.getUniqueId(), uuid -> new PlayerQueue(player));
+    }
+
+    /**
+     * Internal class that identifies what a packet updates.
+     * Two packets with equal keys update the same thing, so the earlier one can be dropped if it was not yet sent.
+     */
+    static class PacketKey {
+
+        final PacketKeyType type;
+        final int entityId;
+        final int metadataFields;
+        final String teamName;
+
+        private PacketKey(PacketKeyType type, int entityId, int metadataFields, String teamName) {
+            this.type = type;
+            this.entityId = entityId;
+            this.metadataFields = metadataFields;
+            this.teamName = teamName;
+        }
+
+        /**
+         * @param type The type of the entity packet.
+         * @param entityId The id of the entity.
+         * @return A key for the packet of the given type for the entity.
+         */
+        static PacketKey entity(PacketKeyType type, int entityId) {
+            return new PacketKey(type, entityId, 0, null);
+        }
+
+        /**
+         * Metadata packets only supersede each other if they contain the same entries,
+         * otherwise the entries of the superseded packet would never be sent.
+         *
+         * @param entityId The id of the entity.
+         * @param fields The entries the metadata packet contains.
+         * @return A key for the metadata packet with the given entries for the entity.
+         */
+        static PacketKey metadata(int entityId, Set<EntityMetadataField> fields) {
+            int mask = 0;
+            for (EntityMetadataField field : fields)
+                mask |= 1 << field.ordinal();
+            return new PacketKey(PacketKeyType.ENTITY_METADATA, entityId, mask, null);
+        }
+
+        /**
+         * @param teamName The name of the team.
+         * @return A key for the update packet of the team.
+         */
+        static PacketKey teamUpdate(String teamName) {
+            return new PacketKey(PacketKeyType.TEAM_UPDATE, 0, 0, teamName);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            PacketKey key = (PacketKey) o;
+            return type == key.type && entityId == key.entityId && metadataFields == key.metadataFields && Objects.equals(teamName, key.teamName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, entityId, metadataFields, teamName);
+        }
+    }
+
+    /**
+     * Internal enum for the types of packets that can supersede each other.
+     */
+    enum PacketKeyType {
+        ENTITY_LOOK,
+        ENTITY_HEAD_ROTATION,
+        ENTITY_METADATA,
+        TEAM_UPDATE
+    }
+
+    /**
+     * Internal enum for the priorities of queued packets. Packets with a higher priority are sent first if the packet budget is exceeded.
+     * Packets that depend on each other (e.g. the spawn and the metadata packets of an entity) must be queued with the same priority.
+     */
+    enum PacketPriority {
+        /**
+         * NPC and tablist packets.
+         */
+        HIGH,
+        /**
+         * Sidebar packets.
+         */
+        NORMAL,
+        /**
+         * Hologram packets.
+         */
+        LOW
+    }
+
+    /**
+     * Internal class that holds the queued packets of a player.
+     */
+    private static class PlayerQueue {
+
+        final Player player;
+        final Map<PacketPriority, ArrayDeque<Entry>> lanes = new EnumMap<>(PacketPriority.class);
+        final Map<PacketKey, Entry> keyed = new HashMap<>();
+
+        PlayerQueue(Player player) {
+            this.player = player;
+            for (PacketPriority priority : PacketPriority.values())
+                lanes.put(priority, new ArrayDeque<>());
+        }
+
+        /**
+         * Removes packets from the queue, higher priorities first.
+         *
+         * @param budget The maximum amount of packets to remove or -1 for no limit.
+         * @param tasks The list to add the tasks to that were queued with {@link #whenSent(Player, PacketPriority, UUID, Runnable)} behind the removed packets.
+         * @return The removed packets.
+         */
+        List<Object> poll(int budget, List<Runnable> tasks) {
+            List<Object> packets = new ArrayList<>();
+            for (ArrayDeque<Entry> lane : lanes.values()) {
+                while (!lane.isEmpty() && (budget < 0 || packets.size() < budget)) {
+                    Entry entry = lane.poll();
+                    if (entry.key != null)
+                        keyed.remove(entry.key, entry);
+                    if (entry.task != null)
+                        tasks.add(entry.task);
+                    else if (entry.packet != null)
+                        packets.add(entry.packet);
+                }
+            }
+            return packets;
+        }
+
+        boolean isEmpty() {
+            return lanes.values().stream().allMatch(ArrayDeque::isEmpty);
+        }
+
+        /**
+         * Drops and releases the queued packets that were queued for the world.
+         *
+         * @param worldId The id of the world.
+         */
+        void discard(UUID worldId) {
+            for (ArrayDeque<Entry> lane : lanes.values()) {
+                lane.removeIf(entry -> {
+                    if (!worldId.equals(entry.worldId))
+                        return false;
+
+                    if (entry.key != null)
+                        keyed.remove(entry.key, entry);
+                    ReferenceCountUtil.release(entry.packet);
+                    return true;
+                });
+            }
+        }
+
+        /**
+         * Releases all queued packets that are reference counted.
+         */
+        void release() {
+            lanes.values().forEach(lane -> lane.forEach(entry -> ReferenceCountUtil.release(entry.packet)));
+        }
+    }
+
+    /**
+     * Internal class for a queued packet or task. The packet is set to null if it was superseded.
+     */
+    private static class Entry {
+
+        Object packet;
+        final PacketKey key;
+        final UUID worldId;
+        final Runnable task;
+
+        Entry(Object packet, PacketKey key, UUID worldId) {
+            this(packet, key, worldId, null);
+        }
+
+        Entry(Object packet, PacketKey key, UUID worldId, Runnable task) {
+            this.packet = packet;
+            this.key = key;
+            this.worldId = worldId;
+            this.task = task;
+        }
+    }
+}
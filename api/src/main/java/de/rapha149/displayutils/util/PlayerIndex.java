@@ -0,0 +1,72 @@
+package de.rapha149.displayutils.util;
+
+import org.bukkit.entity.Player;
+
+import java.util.*;
+
+/**
+ * Internal class that assigns small, reusable indices to online players.
+ * The indices can be used for {@link BitSet}s of players, which are a lot smaller and faster than lists or sets of uuids.
+ * Indices are reused after a player is removed, so every bitset that contains a player's index must be cleared before the player is removed.
+ */
+class PlayerIndex {
+
+    private static final Map<UUID, Integer> indices = new HashMap<>();
+    private static final BitSet usedIndices = new BitSet();
+    private static Player[] players = new Player[16];
+
+    /**
+     * Returns the index of the player, assigning the lowest free index if the player doesn't have one yet.
+     *
+     * @param player The player.
+     * @return The index of the player.
+     */
+    static int get(Player player) {
+        Integer index = indices.get(player.getUniqueId());
+        if (index != null)
+            return index;
+
+        int newIndex = usedIndices.nextClearBit(0);
+        usedIndices.set(newIndex);
+        indices.put(player.getUniqueId(), newIndex);
+        if (newIndex >= players.length)
+            players = Arrays.copyOf(players, players.length * 2);
+        players[newIndex] = player;
+        return newIndex;
+    }
+
+    /**
+     * @param index The index.
+     * @return The player with the index or null if no player has the index.
+     */
+    static Player getPlayer(int index) {
+        return index < players.length ? players[index] : null;
+    }
+
+    /**
+     * @param bits The bitset containing the indices of the players.
+     * @return The players whose indices are set in the bitset.
+     */
+    static List<Player> getPlayers(BitSet bits) {
+        List<Player> result = new ArrayList<>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            Player player = getPlayer(i);
+            if (player != null)
+                result.add(player);
+        }
+        return result;
+    }
+
+    /**
+     * Frees the index of the player so that it can be assigned to another player.
+     *
+     * @param uuid The uuid of the player.
+     */
+    static void remove(UUID uuid) {
+        Integer index = indices.remove(uuid);
+        if (index != null) {
+            usedIndices.clear(index);
+            players[index] = null;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package de.rapha149.displayutils.util;
 
 import de.rapha149.displayutils.display.scoreboard.TeamOptionsBuilder;
 import de.rapha149.displayutils.display.sidebar.Sidebar;
+import de.rapha149.displayutils.util.PacketQueue.PacketKey;
+import de.rapha149.displayutils.util.PacketQueue.PacketPriority;
 import de.rapha149.displayutils.version.ScoreboardAction;
 import de.rapha149.displayutils.version.ScoreboardPosition;
 import org.bukkit.Bukkit;
@@ -77,8 +79,7 @@ public class SidebarUtil {
         previousPlayerLines = null;
 
         // remove all scores and teams
-        List<Object> packets = getRemovePackets();
-        Bukkit.getOnlinePlayers().forEach(player -> wrapper.sendPackets(player, packets));
+        PacketQueue.broadcast(Bukkit.getOnlinePlayers(), PacketPriority.NORMAL, getRemovePackets());
     }
 
     /**
@@ -92,17 +93,20 @@ public class SidebarUtil {
         List<UUID> allowedPlayers = sidebar.getPlayers();
         boolean filterPlayers = allowedPlayers != null;
         if (filterPlayers && !initializedPlayers.isEmpty()) {
-            List<Object> packets = getRemovePackets();
+            List<Player> removedPlayers = new ArrayList<>();
             initializedPlayers.removeIf(uuid -> {
                 if (!allowedPlayers.contains(uuid)) {
                     Player player = Bukkit.getPlayer(uuid);
                     if (player != null)
-                        wrapper.sendPackets(player, packets);
+                        removedPlayers.add(player);
                     return true;
                 }
 
                 return false;
             });
+
+            if (!removedPlayers.isEmpty())
+                PacketQueue.broadcast(removedPlayers, PacketPriority.NORMAL, getRemovePackets());
         }
 
         List<Player> players = Bukkit.getOnlinePlayers().stream().filter(player -> !filterPlayers || allowedPlayers.contains(player.getUniqueId())).collect(Collectors.toList());
@@ -110,7 +114,6 @@ public class SidebarUtil {
             return;
 
         boolean playerSpecific = sidebar.hasPlayerModifier();
-        Map<Player, List<Object>> packets = new HashMap<>();
         Object scoreboard = wrapper.newScoreboard();
 
         List<String> lines = sidebar.getGeneralModifier() != null ? Collections.unmodifiableList(sidebar.getGeneralModifier().modify(sidebar.getLines())) : sidebar.getLines();
@@ -140,10 +143,8 @@ public class SidebarUtil {
                 initPackets.add(wrapper.getTeamPlayerActionPacket(team, Collections.singletonList(name), true));
             }
 
-            for (Player player : uninitialized) {
-                packets.put(player, new ArrayList<>(initPackets));
-                initializedPlayers.add(player.getUniqueId());
-            }
+            PacketQueue.broadcast(uninitialized, PacketPriority.NORMAL, initPackets);
+            uninitialized.forEach(player -> initializedPlayers.add(player.getUniqueId()));
         }
 
         if (playerSpecific) {
@@ -155,29 +156,32 @@ public class SidebarUtil {
 
                 for (int i = 0; i < playerLines.size(); i++) {
                     String line = playerLines.get(i);
-                    if (previousLines == null || !previousLines.get(i).equals(line))
-                        packets.computeIfAbsent(player, p -> new ArrayList<>()).add(wrapper.getTeamActionPacket(getTeam(scoreboard, i, line), ScoreboardAction.UPDATE));
+                    if (previousLines == null || !previousLines.get(i).equals(line)) {
+                        Object team = getTeam(scoreboard, i, line);
+                        PacketQueue.send(player, PacketPriority.NORMAL, wrapper.getTeamActionPacket(team, ScoreboardAction.UPDATE), PacketKey.teamUpdate(wrapper.getTeamName(team)));
+                    }
                 }
 
                 previousPlayerLines.put(uuid, playerLines);
             }
         } else {
             List<Object> generalPackets = new ArrayList<>();
+            List<PacketKey> generalKeys = new ArrayList<>();
             for (int i = 0; i < lines.size(); i++) {
                 String line = lines.get(i);
-                if (previousGeneralLines == null || !previousGeneralLines.get(i).equals(line))
-                    generalPackets.add(wrapper.getTeamActionPacket(getTeam(scoreboard, i, line), ScoreboardAction.UPDATE));
+                if (previousGeneralLines == null || !previousGeneralLines.get(i).equals(line)) {
+                    Object team = getTeam(scoreboard, i, line);
+                    generalPackets.add(wrapper.getTeamActionPacket(team, ScoreboardAction.UPDATE));
+                    generalKeys.add(PacketKey.teamUpdate(wrapper.getTeamName(team)));
+                }
             }
 
-            for (Player player : players) {
-                if (!packets.containsKey(player)) // previously uninitialized players are already in this map and don't need this packets
-                    packets.put(player, generalPackets);
-            }
+            // previously uninitialized players already received the current lines with the init packets
+            players.removeAll(new HashSet<>(uninitialized));
+            PacketQueue.broadcast(players, PacketPriority.NORMAL, generalPackets, generalKeys);
 
             previousGeneralLines = lines;
         }
-
-        packets.forEach(wrapper::sendPackets);
     }
 
     /**
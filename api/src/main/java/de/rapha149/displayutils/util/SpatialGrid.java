@@ -0,0 +1,124 @@
+package de.rapha149.displayutils.util;
+
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import org.bukkit.Location;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Internal class that indexes values by the area around a location in which they are relevant.
+ * Each world is divided into columns of {@value #CELL_SIZE}x{@value #CELL_SIZE} blocks, keyed by their packed coordinates.
+ * A value is added to every cell that intersects the square around its location with the given radius,
+ * so all values whose radius contains a location are found by looking up the single cell of that location.
+ * Values with a radius above {@value #MAX_INDEXED_RADIUS} blocks would be added to too many cells,
+ * so they are kept in a list per world instead and are returned for every cell of that world.
+ *
+ * @param <T> The type of the values.
+ */
+class SpatialGrid<T> {
+
+    static final int CELL_SIZE = 16;
+    static final int MAX_INDEXED_RADIUS = 256;
+    private static final int CELL_SHIFT = 4;
+
+    private final Map<UUID, LongObjectMap<List<T>>> worlds = new HashMap<>();
+    private final Map<UUID, List<T>> overflow = new HashMap<>();
+
+    /**
+     * Adds the value to all cells within the radius around the location,
+     * or to the values of the world that are always returned if the radius is above {@value #MAX_INDEXED_RADIUS} blocks.
+     *
+     * @param value The value to add.
+     * @param loc The location of the value.
+     * @param radius The radius in blocks in which the value is relevant.
+     */
+    void add(T value, Location loc, double radius) {
+        if (radius > MAX_INDEXED_RADIUS) {
+            overflow.computeIfAbsent(loc.getWorld().getUID(), uuid -> new ArrayList<>()).add(value);
+            return;
+        }
+
+        LongObjectMap<List<T>> cells = worlds.computeIfAbsent(loc.getWorld().getUID(), uuid -> new LongObjectHashMap<>());
+        forEachCell(loc, radius, key -> {
+            List<T> values = cells.get(key);
+            if (values == null)
+                cells.put(key, values = new ArrayList<>());
+            values.add(value);
+        });
+    }
+
+    /**
+     * Removes the value from all cells within the radius around the location.
+     * The location and the radius must be the same as when the value was added.
+     *
+     * @param value The value to remove.
+     * @param loc The location of the value.
+     * @param radius The radius in blocks in which the value is relevant.
+     */
+    void remove(T value, Location loc, double radius) {
+        UUID worldId = loc.getWorld().getUID();
+        if (radius > MAX_INDEXED_RADIUS) {
+            List<T> values = overflow.get(worldId);
+            if (values != null && values.remove(value) && values.isEmpty())
+                overflow.remove(worldId);
+            return;
+        }
+
+        LongObjectMap<List<T>> cells = worlds.get(worldId);
+        if (cells == null)
+            return;
+
+        forEachCell(loc, radius, key -> {
+            List<T> values = cells.get(key);
+            if (values != null && values.remove(value) && values.isEmpty())
+                cells.remove(key);
+        });
+
+        if (cells.isEmpty())
+            worlds.remove(worldId);
+    }
+
+    /**
+     * @param worldId The id of the world.
+     * @param key The key of the cell, see {@link #getKey(Location)}.
+     * @return The values in the cell including the values of the world whose radius is too large to be indexed. The list must not be modified.
+     */
+    List<T> get(UUID worldId, long key) {
+        LongObjectMap<List<T>> cells = worlds.get(worldId);
+        List<T> values = cells != null ? cells.get(key) : null;
+        List<T> unindexed = overflow.get(worldId);
+        if (unindexed == null)
+            return values != null ? values : Collections.emptyList();
+        if (values == null)
+            return unindexed;
+
+        List<T> combined = new ArrayList<>(values.size() + unindexed.size());
+        combined.addAll(values);
+        combined.addAll(unindexed);
+        return combined;
+    }
+
+    /**
+     * @param loc The location.
+     * @return The key of the cell that contains the location.
+     */
+    static long getKey(Location loc) {
+        return pack(loc.getBlockX() >> CELL_SHIFT, loc.getBlockZ() >> CELL_SHIFT);
+    }
+
+    private static long pack(int cellX, int cellZ) {
+        return (long) cellX << 32 | cellZ & 0xFFFFFFFFL;
+    }
+
+    private void forEachCell(Location loc, double radius, LongConsumer consumer) {
+        int minX = (int) Math.floor(loc.getX() - radius) >> CELL_SHIFT;
+        int maxX = (int) Math.floor(loc.getX() + radius) >> CELL_SHIFT;
+        int minZ = (int) Math.floor(loc.getZ() - radius) >> CELL_SHIFT;
+        int maxZ = (int) Math.floor(loc.getZ() + radius) >> CELL_SHIFT;
+        for (int x = minX; x <= maxX; x++)
+            for (int z = minZ; z <= maxZ; z++)
+                consumer.accept(pack(x, z));
+    }
+}
@@ -4,6 +4,8 @@ import de.rapha149.displayutils.display.scoreboard.TeamOptions;
 import de.rapha149.displayutils.display.scoreboard.TeamOptionsBuilder;
 import de.rapha149.displayutils.display.tablist.TablistContentProvider;
 import de.rapha149.displayutils.display.tablist.TablistGroup;
+import de.rapha149.displayutils.util.PacketQueue.PacketKey;
+import de.rapha149.displayutils.util.PacketQueue.PacketPriority;
 import de.rapha149.displayutils.version.ScoreboardAction;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -61,8 +63,7 @@ public class TablistUtil {
         TablistUtil.provider = null;
 
         List<Object> packets = teams.values().stream().map(entry -> wrapper.getTeamActionPacket(entry.getValue(), ScoreboardAction.REMOVE)).collect(Collectors.toList());
-        for (Player player : Bukkit.getOnlinePlayers())
-            wrapper.sendPackets(player, packets);
+        PacketQueue.broadcast(Bukkit.getOnlinePlayers(), PacketPriority.HIGH, packets);
         teams.clear();
     }
 
@@ -133,6 +134,7 @@ public class TablistUtil {
 
         Map<TablistGroup, String> groupMap = new HashMap<>();
         List<Object> packets = new ArrayList<>();
+        List<PacketKey> keys = new ArrayList<>();
         List<Object> packetsJoined = joined != null ? new ArrayList<>() : null;
 
         int length = String.valueOf(groups.size()).length();
@@ -143,6 +145,7 @@ public class TablistUtil {
         teams.entrySet().removeIf(entry -> {
             if (!identifiers.contains(entry.getKey())) {
                 packets.add(wrapper.getTeamActionPacket(entry.getValue().getValue(), ScoreboardAction.REMOVE));
+                keys.add(null);
                 return true;
             }
             return false;
@@ -161,8 +164,10 @@ public class TablistUtil {
 
             if (entry == null || !wrapper.getTeamName(entry.getValue()).startsWith(position)) {
                 created = true;
-                if (entry != null)
+                if (entry != null) {
                     packets.add(wrapper.getTeamActionPacket(entry.getValue(), ScoreboardAction.REMOVE));
+                    keys.add(null);
+                }
 
                 List<String> existingNames = teams.values().stream().map(e -> wrapper.getTeamName(e.getValue())).collect(Collectors.toList());
                 String name;
@@ -183,10 +188,15 @@ public class TablistUtil {
 
             wrapper.setTeamOptions(team, group.getTeamOptions());
             packets.add(wrapper.getTeamActionPacket(team, created ? ScoreboardAction.CREATE : ScoreboardAction.UPDATE));
-            if (!playersToAdd.isEmpty())
+            keys.add(created ? null : PacketKey.teamUpdate(wrapper.getTeamName(team)));
+            if (!playersToAdd.isEmpty()) {
                 packets.add(wrapper.getTeamPlayerActionPacket(team, playersToAdd, true));
-            if (!playersToRemove.isEmpty())
+                keys.add(null);
+            }
+            if (!playersToRemove.isEmpty()) {
                 packets.add(wrapper.getTeamPlayerActionPacket(team, playersToRemove, false));
+                keys.add(null);
+            }
 
             if (joined != null) {
                 packetsJoined.add(wrapper.getTeamActionPacket(team, ScoreboardAction.CREATE));
@@ -195,8 +205,10 @@ public class TablistUtil {
             }
         });
 
-        for (Player player : Bukkit.getOnlinePlayers())
-            wrapper.sendPackets(player, player.equals(joined) ? packetsJoined : packets);
+        List<Player> players = new ArrayList<>(Bukkit.getOnlinePlayers());
+        if (joined != null && players.remove(joined))
+            PacketQueue.send(joined, PacketPriority.HIGH, packetsJoined);
+        PacketQueue.broadcast(players, PacketPriority.HIGH, packets, keys);
     }
 
     /**
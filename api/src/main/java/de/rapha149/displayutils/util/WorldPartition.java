@@ -0,0 +1,46 @@
+package de.rapha149.displayutils.util;
+
+import java.util.*;
+
+/**
+ * Internal class that partitions values by the world they are in.
+ * Handlers that only care about the values in a player's world can look up that world's partition instead of iterating all values and comparing worlds.
+ *
+ * @param <T> The type of the values.
+ */
+class WorldPartition<T> {
+
+    private final Map<UUID, Map<String, T>> worlds = new HashMap<>();
+
+    /**
+     * Adds the value to the partition of the world.
+     *
+     * @param worldId The id of the world the value is in.
+     * @param identifier The identifier of the value.
+     * @param value The value to add.
+     */
+    void put(UUID worldId, String identifier, T value) {
+        worlds.computeIfAbsent(worldId, uuid -> new LinkedHashMap<>()).put(identifier, value);
+    }
+
+    /**
+     * Removes the value from the partition of the world.
+     *
+     * @param worldId The id of the world the value is in.
+     * @param identifier The identifier of the value.
+     */
+    void remove(UUID worldId, String identifier) {
+        Map<String, T> values = worlds.get(worldId);
+        if (values != null && values.remove(identifier) != null && values.isEmpty())
+            worlds.remove(worldId);
+    }
+
+    /**
+     * @param worldId The id of the world.
+     * @return The values in the world. The collection must not be modified and must not be iterated while values are added or removed.
+     */
+    Collection<T> get(UUID worldId) {
+        Map<String, T> values = worlds.get(worldId);
+        return values != null ? values.values() : Collections.emptyList();
+    }
+}
@@ -0,0 +1,49 @@
+package de.rapha149.displayutils.display.npc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * A {@link NPCSkinSource} that reads skins from a local folder. It can be used in place of a web api, e.g. for testing or for servers without internet access.
+ * <p>
+ * Each skin is stored in a file named {@code <key>.properties} that contains the properties {@code texture} and {@code signature}.
+ */
+public class LocalNPCSkinSource implements NPCSkinSource {
+
+    private final File folder;
+
+    /**
+     * Constructs a new LocalNPCSkinSource.
+     * @param folder The folder containing the skin files.
+     * @throws NullPointerException If the folder is null.
+     */
+    public LocalNPCSkinSource(File folder) {
+        this.folder = Objects.requireNonNull(folder, "The folder cannot be null");
+    }
+
+    @Override
+    public NPCSkinTexture fetch(String key) throws IOException {
+        // keys are used as file names, so they must not point outside of the folder
+        if (key.contains("/") || key.contains("\\") || key.contains(".."))
+            return null;
+
+        File file = new File(folder, key + ".properties");
+        if (!file.isFile())
+            return null;
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+
+        String texture = properties.getProperty("texture");
+        String signature = properties.getProperty("signature");
+        if (texture == null || signature == null)
+            throw new IOException("The skin file " + file.getName() + " must contain a texture and a signature");
+        return new NPCSkinTexture(texture, signature);
+    }
+}
@@ -22,7 +22,16 @@ public class NPC {
 
     private final boolean matchSneakingWithPlayer;
     private final boolean lookAtPlayer;
+    private final int lookAtInterval;
 
+    private final int nearDistance;
+    private final int farDistance;
+    private final int midLookAtInterval;
+    private final int nearDistanceSquared;
+    private final int farDistanceSquared;
+
+    private final int maxDistance;
+    private final int maxViewAngle;
     private final int maxDistanceSquared;
     private final double maxViewAngleCos;
 
@@ -42,12 +51,16 @@ public class NPC {
      * @param nameTagVisible Whether the NPC's name tag is visible.
      * @param matchSneakingWithPlayer Whether the NPC's sneaking state should be matched with each player's sneaking state.
      * @param lookAtPlayer Whether the NPC should look at each player.
-     * @param maxDistanceSquared The maximum distance squared in blocks at which the NPC is shown to the player.
-     * @param maxViewAngleCos The maximum cosine of the view angle at which the NPC is shown to the player.
+     * @param lookAtInterval The minimum amount of ticks between two rotation updates for the same player.
+     * @param nearDistance The distance in blocks up to which the NPC has full detail or -1 if the NPC has full detail at every distance.
+     * @param farDistance The distance in blocks beyond which the NPC is static or -1 if the NPC has full detail at every distance.
+     * @param midLookAtInterval The minimum amount of ticks between two rotation updates for players between the near and the far distance.
+     * @param maxDistance The maximum distance in blocks at which the NPC is shown to the player.
+     * @param maxViewAngle The maximum view angle in degrees at which the NPC is shown to the player.
      * @param useListener The listener that is called when the NPC is used.
      * @param listenerCooldown The cooldown of the listener in ticks.
      */
-    NPC(String identifier, String name, NPCSkin skin, Location loc, List<UUID> includedPlayers, List<UUID> excludedPlayers, boolean sneaking, boolean collidable, boolean nameTagVisible, boolean matchSneakingWithPlayer, boolean lookAtPlayer, int maxDistanceSquared, double maxViewAngleCos, NPCUseListener useListener, int listenerCooldown) {
+    NPC(String identifier, String name, NPCSkin skin, Location loc, List<UUID> includedPlayers, List<UUID> excludedPlayers, boolean sneaking, boolean collidable, boolean nameTagVisible, boolean matchSneakingWithPlayer, boolean lookAtPlayer, int lookAtInterval, int nearDistance, int farDistance, int midLookAtInterval, int maxDistance, int maxViewAngle, NPCUseListener useListener, int listenerCooldown) {
         this.identifier = identifier;
         this.name = name;
         this.skin = skin;
@@ -59,8 +72,16 @@ public class NPC {
         this.nameTagVisible = nameTagVisible;
         this.matchSneakingWithPlayer = matchSneakingWithPlayer;
         this.lookAtPlayer = lookAtPlayer;
-        this.maxDistanceSquared = maxDistanceSquared;
-        this.maxViewAngleCos = maxViewAngleCos;
+        this.lookAtInterval = lookAtInterval;
+        this.nearDistance = nearDistance;
+        this.farDistance = farDistance;
+        this.midLookAtInterval = midLookAtInterval;
+        this.nearDistanceSquared = nearDistance * nearDistance;
+        this.farDistanceSquared = farDistance * farDistance;
+        this.maxDistance = maxDistance;
+        this.maxViewAngle = maxViewAngle;
+        this.maxDistanceSquared = maxDistance * maxDistance;
+        this.maxViewAngleCos = Math.cos(Math.toRadians(maxViewAngle));
         this.useListener = useListener;
         this.listenerCooldown = Math.max(listenerCooldown, 1);
     }
@@ -94,6 +115,20 @@ public class NPC {
         return loc;
     }
 
+    /**
+     * @return The players that can see the NPC or null if it is not restricted to some players.
+     */
+    List<UUID> getIncludedPlayers() {
+        return includedPlayers;
+    }
+
+    /**
+     * @return The players that can't see the NPC or null if no players are excluded.
+     */
+    List<UUID> getExcludedPlayers() {
+        return excludedPlayers;
+    }
+
     /**
      * Checks the includedPlayers and excludedPlayers list and returns whether the NPC is shown for the player.
      * @param player The player.
@@ -143,6 +178,69 @@ public class NPC {
         return lookAtPlayer;
     }
 
+    /**
+     * @return The minimum amount of ticks between two rotation updates for the same player.
+     */
+    public int getLookAtInterval() {
+        return lookAtInterval;
+    }
+
+    /**
+     * @return Whether the NPC has less detail for players that are further away, see {@link NPCBuilder#setDetailDistances(int, int)}.
+     */
+    public boolean hasDetailLevels() {
+        return nearDistance >= 0;
+    }
+
+    /**
+     * @return The distance in blocks up to which the NPC has full detail or -1 if the NPC has full detail at every distance.
+     */
+    public int getNearDistance() {
+        return nearDistance;
+    }
+
+    /**
+     * @return The distance in blocks beyond which the NPC is static or -1 if the NPC has full detail at every distance.
+     */
+    public int getFarDistance() {
+        return farDistance;
+    }
+
+    /**
+     * @return The minimum amount of ticks between two rotation updates for players between the near and the far distance.
+     */
+    public int getMidLookAtInterval() {
+        return midLookAtInterval;
+    }
+
+    /**
+     * @return The distance squared in blocks up to which the NPC has full detail.
+     */
+    public int getNearDistanceSquared() {
+        return nearDistanceSquared;
+    }
+
+    /**
+     * @return The distance squared in blocks beyond which the NPC is static.
+     */
+    public int getFarDistanceSquared() {
+        return farDistanceSquared;
+    }
+
+    /**
+     * @return The maximum distance in blocks at which the NPC is shown to the player.
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return The maximum view angle in degrees at which the NPC is shown to the player.
+     */
+    public int getMaxViewAngle() {
+        return maxViewAngle;
+    }
+
     /**
      * @return The maximum distance squared in blocks at which the NPC is shown to the player.
      */
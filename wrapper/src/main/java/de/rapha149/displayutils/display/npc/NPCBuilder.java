@@ -25,6 +25,11 @@ public class NPCBuilder {
 
     private boolean matchSneakingWithPlayer = false;
     private boolean lookAtPlayer = false;
+    private int lookAtInterval = 1;
+
+    private int nearDistance = -1;
+    private int farDistance = -1;
+    private int midLookAtInterval = 10;
 
     private int maxDistance = 100;
     private int maxViewAngle = 60;
@@ -56,6 +61,73 @@ public class NPCBuilder {
         this.useListener = useListener;
     }
 
+    /**
+     * Constructs a new NPCBuilder with all values of the NPC. <br>
+     * This can be used to create a modified copy of an NPC.
+     *
+     * @param npc The NPC to copy the values from.
+     * @throws NullPointerException If the NPC is null.
+     */
+    public NPCBuilder(NPC npc) {
+        Objects.requireNonNull(npc, "The npc cannot be null");
+
+        this.identifier = npc.getIdentifier();
+        this.name = npc.getName();
+        this.skin = npc.getSkin();
+        this.loc = npc.getLoc();
+        this.includedPlayers = npc.getIncludedPlayers();
+        this.excludedPlayers = npc.getExcludedPlayers();
+        this.sneaking = npc.isSneaking();
+        this.collidable = npc.isCollidable();
+        this.nameTagVisible = npc.isNameTagVisible();
+        this.matchSneakingWithPlayer = npc.isMatchSneakingWithPlayer();
+        this.lookAtPlayer = npc.isLookAtPlayer();
+        this.lookAtInterval = npc.getLookAtInterval();
+        this.nearDistance = npc.getNearDistance();
+        this.farDistance = npc.getFarDistance();
+        this.midLookAtInterval = npc.getMidLookAtInterval();
+        this.maxDistance = npc.getMaxDistance();
+        this.maxViewAngle = npc.getMaxViewAngle();
+        this.useListener = npc.getUseListener();
+        this.listenerCooldown = npc.getListenerCooldown();
+    }
+
+    /**
+     * Sets the name of the NPC.
+     *
+     * @param name The name of the NPC. Should be unique. A name longer than 16 characters will most likely result in the player being kicked.
+     * @return The {@link NPCBuilder} instance.
+     * @throws NullPointerException If the name is null.
+     */
+    public NPCBuilder setName(String name) {
+        this.name = Objects.requireNonNull(name, "The name cannot be null");
+        return this;
+    }
+
+    /**
+     * Sets the skin of the NPC.
+     *
+     * @param skin The skin of the NPC. See {@link NPCSkin} for more information.
+     * @return The {@link NPCBuilder} instance.
+     * @throws NullPointerException If the skin is null.
+     */
+    public NPCBuilder setSkin(NPCSkin skin) {
+        this.skin = Objects.requireNonNull(skin, "The skin cannot be null");
+        return this;
+    }
+
+    /**
+     * Sets the location of the NPC.
+     *
+     * @param loc The location of the NPC.
+     * @return The {@link NPCBuilder} instance.
+     * @throws NullPointerException If the location is null.
+     */
+    public NPCBuilder setLocation(Location loc) {
+        this.loc = Objects.requireNonNull(loc, "The location cannot be null");
+        return this;
+    }
+
     /**
      * Sets the players that can see the NPC. All other players won't be able to see it. <br>
      * If this and the other mentioned methods are not called, all players will be able to see the NPC.
@@ -205,6 +277,73 @@ public class NPCBuilder {
         return this;
     }
 
+    /**
+     * Sets the minimum amount of ticks between two rotation updates that are sent to the same player when the NPC looks at players. <br>
+     * The default is 1 tick, which means that the rotation is updated every tick the player moves.
+     * <p>
+     * Higher values reduce the amount of packets that are sent when a lot of players are moving around the NPC.
+     * The NPC will still look at the player's final position once the player stops moving.
+     *
+     * @param lookAtInterval The minimum amount of ticks between two rotation updates.
+     * @return The {@link NPCBuilder} instance.
+     * @throws IllegalArgumentException If the interval is smaller than 1.
+     * @see #setLookAtPlayer(boolean)
+     */
+    public NPCBuilder setLookAtInterval(int lookAtInterval) {
+        if (lookAtInterval < 1)
+            throw new IllegalArgumentException("The look at interval cannot be smaller than 1");
+
+        this.lookAtInterval = lookAtInterval;
+        return this;
+    }
+
+    /**
+     * Sets the distances at which the NPC has less detail for a player. <br>
+     * By default, the NPC has full detail at every distance.
+     * <p>
+     * Players within the near distance get full detail. <br>
+     * Players between the near and the far distance get rotation updates only every few ticks, see {@link #setMidLookAtInterval(int)}. <br>
+     * Players beyond the far distance see a static NPC, which neither looks at them nor matches their sneaking state.
+     * Once they come closer again, the NPC looks at them and matches their sneaking state again.
+     * <p>
+     * This greatly reduces the amount of packets that are sent when a lot of players are far away from a lot of NPCs.
+     *
+     * @param nearDistance The distance in blocks up to which the NPC has full detail.
+     * @param farDistance The distance in blocks beyond which the NPC is static.
+     * @return The {@link NPCBuilder} instance.
+     * @throws IllegalArgumentException If the near distance is smaller than 0 or the far distance is smaller than the near distance.
+     * @see #setLookAtPlayer(boolean)
+     * @see #setMatchSneakingWithPlayer(boolean)
+     */
+    public NPCBuilder setDetailDistances(int nearDistance, int farDistance) {
+        if (nearDistance < 0)
+            throw new IllegalArgumentException("The near distance cannot be smaller than 0");
+        if (farDistance < nearDistance)
+            throw new IllegalArgumentException("The far distance cannot be smaller than the near distance");
+
+        this.nearDistance = nearDistance;
+        this.farDistance = farDistance;
+        return this;
+    }
+
+    /**
+     * Sets the minimum amount of ticks between two rotation updates that are sent to players between the near and the far distance. <br>
+     * The default is 10 ticks. If the look at interval is higher, the look at interval is used instead.
+     *
+     * @param midLookAtInterval The minimum amount of ticks between two rotation updates.
+     * @return The {@link NPCBuilder} instance.
+     * @throws IllegalArgumentException If the interval is smaller than 1.
+     * @see #setDetailDistances(int, int)
+     * @see #setLookAtInterval(int)
+     */
+    public NPCBuilder setMidLookAtInterval(int midLookAtInterval) {
+        if (midLookAtInterval < 1)
+            throw new IllegalArgumentException("The mid look at interval cannot be smaller than 1");
+
+        this.midLookAtInterval = midLookAtInterval;
+        return this;
+    }
+
     /**
      * Sets the maximum distance within which the NPC is visible to a player. <br>
      * The distance is measured in blocks. <br>
@@ -279,8 +418,6 @@ public class NPCBuilder {
      * @return The {@link NPC} instance.
      */
     public NPC build() {
-        int maxDistanceSquared = maxDistance * maxDistance;
-        double maxViewAngleCos = Math.cos(Math.toRadians(maxViewAngle));
-        return new NPC(identifier, name, skin, loc, includedPlayers, excludedPlayers, sneaking, collidable, nameTagVisible, matchSneakingWithPlayer, lookAtPlayer, maxDistanceSquared, maxViewAngleCos, useListener, listenerCooldown);
+        return new NPC(identifier, name, skin, loc, includedPlayers, excludedPlayers, sneaking, collidable, nameTagVisible, matchSneakingWithPlayer, lookAtPlayer, lookAtInterval, nearDistance, farDistance, midLookAtInterval, maxDistance, maxViewAngle, useListener, listenerCooldown);
     }
 }
\ No newline at end of file
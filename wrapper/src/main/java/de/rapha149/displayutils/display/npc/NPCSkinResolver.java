@@ -0,0 +1,230 @@
+package de.rapha149.displayutils.display.npc;
+
+import de.rapha149.displayutils.display.npc.NPCSkin.NPCSkinPart;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class for resolving {@link NPCSkin}s asynchronously.
+ * <p>
+ * Skins are looked up from a {@link NPCSkinSource} and cached in memory and on disk.
+ * The memory cache holds the most recently used skins, the disk cache holds all skins that were looked up within the time to live,
+ * so skins don't have to be looked up again after a restart.
+ * Multiple requests for the same skin at the same time only cause a single lookup.
+ * <p>
+ * Use together with {@code NPCUtil#addNPC(CompletableFuture)} to add NPCs once their skins are resolved.
+ * Call {@link #shutdown()} when your plugin is disabled.
+ */
+public class NPCSkinResolver {
+
+    private static final int DEFAULT_THREADS = 2;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final NPCSkinSource source;
+    private final File cacheFolder;
+    private final long cacheTimeToLive;
+    private final Executor executor;
+    // only set if the executor was created by this resolver
+    private final ExecutorService ownExecutor;
+
+    private final Map<String, NPCSkinTexture> memoryCache;
+    private final Map<String, CompletableFuture<NPCSkinTexture>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new NPCSkinResolver that looks up skins on its own {@value #DEFAULT_THREADS} daemon threads.
+     * The lookups block while waiting for the source and the disk, so they are kept off the common fork join pool.
+     * @param source The source to look up skins from.
+     * @param cacheFolder The folder to cache the skins in or null to not cache skins on disk.
+     * @param memoryCacheSize The maximum amount of skins to cache in memory.
+     * @param cacheTimeToLive The time in milliseconds after which skins cached on disk are looked up again.
+     * @throws NullPointerException If the source is null.
+     * @throws IllegalArgumentException If the memory cache size or the time to live is smaller than 0.
+     * @see #NPCSkinResolver(NPCSkinSource, File, int, long, Executor)
+     */
+    public NPCSkinResolver(NPCSkinSource source, File cacheFolder, int memoryCacheSize, long cacheTimeToLive) {
+        this(source, cacheFolder, memoryCacheSize, cacheTimeToLive, Executors.newFixedThreadPool(DEFAULT_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "DisplayUtils Skin Resolver #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Constructs a new NPCSkinResolver.
+     * @param source The source to look up skins from.
+     * @param cacheFolder The folder to cache the skins in or null to not cache skins on disk.
+     * @param memoryCacheSize The maximum amount of skins to cache in memory.
+     * @param cacheTimeToLive The time in milliseconds after which skins cached on disk are looked up again.
+     * @param executor The executor to look up skins and access the disk cache on. It is not shut down by {@link #shutdown()}.
+     * @throws NullPointerException If the source or the executor is null.
+     * @throws IllegalArgumentException If the memory cache size or the time to live is smaller than 0.
+     */
+    public NPCSkinResolver(NPCSkinSource source, File cacheFolder, int memoryCacheSize, long cacheTimeToLive, Executor executor) {
+        this(source, cacheFolder, memoryCacheSize, cacheTimeToLive, executor, false);
+    }
+
+    private NPCSkinResolver(NPCSkinSource source, File cacheFolder, int memoryCacheSize, long cacheTimeToLive, Executor executor, boolean ownExecutor) {
+        Objects.requireNonNull(source, "The source cannot be null");
+        Objects.requireNonNull(executor, "The executor cannot be null");
+        if (memoryCacheSize < 0)
+            throw new IllegalArgumentException("The memory cache size cannot be smaller than 0");
+        if (cacheTimeToLive < 0)
+            throw new IllegalArgumentException("The time to live cannot be smaller than 0");
+
+        this.source = source;
+        this.cacheFolder = cacheFolder;
+        this.cacheTimeToLive = cacheTimeToLive;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor ? (ExecutorService) executor : null;
+        this.memoryCache = Collections.synchronizedMap(new LinkedHashMap<String, NPCSkinTexture>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NPCSkinTexture> eldest) {
+                return size() > memoryCacheSize;
+            }
+        });
+    }
+
+    /**
+     * Resolves the skin with the default parts enabled.
+     * @param key The key of the skin, which is passed to the {@link NPCSkinSource}.
+     * @return A future that is completed with the skin. It is completed exceptionally if there is no skin with the key or the lookup failed.
+     * @see #resolve(String, List)
+     */
+    public CompletableFuture<NPCSkin> resolve(String key) {
+        return resolve(key, NPCSkinPart.getDefaultParts());
+    }
+
+    /**
+     * Resolves the skin. If the skin is cached in memory, the returned future is already completed.
+     * Otherwise the disk cache and the source are checked asynchronously.
+     * @param key The key of the skin, which is passed to the {@link NPCSkinSource}.
+     * @param enabledParts The parts of the skin that are enabled. See {@link NPCSkinPart#getDefaultParts()} for more information.
+     * @return A future that is completed with the skin. It is completed exceptionally if there is no skin with the key or the lookup failed.
+     * @throws NullPointerException If the key or the list is null.
+     */
+    public CompletableFuture<NPCSkin> resolve(String key, List<NPCSkinPart> enabledParts) {
+        Objects.requireNonNull(key, "The key cannot be null");
+        Objects.requireNonNull(enabledParts, "The list cannot be null");
+
+        NPCSkinTexture cached = memoryCache.get(key);
+        if (cached != null)
+            return CompletableFuture.completedFuture(new NPCSkin(cached.getTexture(), cached.getSignature(), enabledParts));
+
+        CompletableFuture<NPCSkinTexture> created = new CompletableFuture<>();
+        CompletableFuture<NPCSkinTexture> future = pending.putIfAbsent(key, created);
+        if (future == null) {
+            future = created;
+            try {
+                executor.execute(() -> {
+                    try {
+                        created.complete(lookUp(key));
+                    } catch (Throwable t) {
+                        created.completeExceptionally(t);
+                    } finally {
+                        pending.remove(key, created);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pending.remove(key, created);
+                created.completeExceptionally(e);
+            }
+        }
+
+        return future.thenApply(texture -> new NPCSkin(texture.getTexture(), texture.getSignature(), enabledParts));
+    }
+
+    /**
+     * Removes the skin from the memory and disk cache so it is looked up again the next time it is resolved.
+     * @param key The key of the skin.
+     */
+    public void invalidate(String key) {
+        memoryCache.remove(key);
+        if (cacheFolder != null)
+            //noinspection ResultOfMethodCallIgnored
+            getCacheFile(key).delete();
+    }
+
+    /**
+     * Shuts down the threads of this resolver if it was constructed without an executor.
+     * Lookups that are still running are finished, skins resolved afterwards complete exceptionally with a {@link RejectedExecutionException}.
+     * Please call this method in your plugin's onDisable method.
+     */
+    public void shutdown() {
+        if (ownExecutor != null)
+            ownExecutor.shutdown();
+    }
+
+    private NPCSkinTexture lookUp(String key) {
+        NPCSkinTexture texture = readCache(key);
+        if (texture == null) {
+            try {
+                texture = source.fetch(key);
+            } catch (Exception e) {
+                throw new CompletionException("Could not look up skin " + key, e);
+            }
+            if (texture == null)
+                throw new CompletionException(new NoSuchElementException("There is no skin with the key " + key));
+
+            writeCache(key, texture);
+        }
+
+        memoryCache.put(key, texture);
+        return texture;
+    }
+
+    private NPCSkinTexture readCache(String key) {
+        if (cacheFolder == null)
+            return null;
+
+        File file = getCacheFile(key);
+        if (!file.isFile() || System.currentTimeMillis() - file.lastModified() > cacheTimeToLive)
+            return null;
+
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        // different keys can map to the same file name
+        if (!key.equals(properties.getProperty("key")))
+            return null;
+
+        String texture = properties.getProperty("texture");
+        String signature = properties.getProperty("signature");
+        return texture != null && signature != null ? new NPCSkinTexture(texture, signature) : null;
+    }
+
+    private void writeCache(String key, NPCSkinTexture texture) {
+        if (cacheFolder == null)
+            return;
+
+        Properties properties = new Properties();
+        properties.setProperty("key", key);
+        properties.setProperty("texture", texture.getTexture());
+        properties.setProperty("signature", texture.getSignature());
+
+        if (!cacheFolder.isDirectory() && !cacheFolder.mkdirs())
+            return;
+        try (OutputStream out = new FileOutputStream(getCacheFile(key))) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private File getCacheFile(String key) {
+        return new File(cacheFolder, key.replaceAll("[^a-zA-Z0-9_-]", "_") + ".properties");
+    }
+}
@@ -0,0 +1,17 @@
+package de.rapha149.displayutils.display.npc;
+
+/**
+ * A functional interface for looking up the textures of skins, e.g. from a web api or a database.
+ * Used by the {@link NPCSkinResolver}.
+ */
+@FunctionalInterface
+public interface NPCSkinSource {
+
+    /**
+     * Looks up the texture of a skin. This method is always called asynchronously, so it may block.
+     * @param key The key of the skin, e.g. the name or uuid of a player.
+     * @return The texture of the skin or null if there is no skin with that key.
+     * @throws Exception If the lookup failed.
+     */
+    NPCSkinTexture fetch(String key) throws Exception;
+}
@@ -0,0 +1,37 @@
+package de.rapha149.displayutils.display.npc;
+
+import java.util.Objects;
+
+/**
+ * A class holding the signed texture of a skin, as returned by a {@link NPCSkinSource}.
+ */
+public class NPCSkinTexture {
+
+    private final String texture;
+    private final String signature;
+
+    /**
+     * Constructs a new NPCSkinTexture.
+     * @param texture The texture of the skin.
+     * @param signature The signature of the skin.
+     * @throws NullPointerException If any of the parameters are null.
+     */
+    public NPCSkinTexture(String texture, String signature) {
+        this.texture = Objects.requireNonNull(texture, "The texture cannot be null");
+        this.signature = Objects.requireNonNull(signature, "The signature cannot be null");
+    }
+
+    /**
+     * @return The texture of the skin.
+     */
+    public String getTexture() {
+        return texture;
+    }
+
+    /**
+     * @return The signature of the skin.
+     */
+    public String getSignature() {
+        return signature;
+    }
+}
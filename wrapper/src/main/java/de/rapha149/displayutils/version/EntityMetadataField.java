@@ -0,0 +1,23 @@
+package de.rapha149.displayutils.version;
+
+/**
+ * An enum for the entity metadata entries the api updates. Used to construct metadata packets that only contain some of the entries.
+ */
+public enum EntityMetadataField {
+    /**
+     * The entity flags, which include whether the entity is sneaking.
+     */
+    FLAGS,
+    /**
+     * The custom name of the entity.
+     */
+    CUSTOM_NAME,
+    /**
+     * Whether the custom name of the entity is visible.
+     */
+    CUSTOM_NAME_VISIBLE,
+    /**
+     * The pose of the entity. Only exists in 1.14 and above and is ignored in older versions.
+     */
+    POSE
+}
@@ -0,0 +1,9 @@
+package de.rapha149.displayutils.version;
+
+/**
+ * An enum for the incoming packets the api listens to. Used to look up the packet classes of the current version.
+ */
+public enum IncomingPacketType {
+    FLYING,
+    USE_ENTITY
+}
@@ -0,0 +1,154 @@
+package de.rapha149.displayutils.version;
+
+import de.rapha149.displayutils.display.npc.NPC;
+import de.rapha149.displayutils.display.npc.NPCSkin;
+import de.rapha149.displayutils.display.npc.NPCSkin.NPCSkinPart;
+import org.bukkit.Location;
+
+import java.util.UUID;
+
+/**
+ * A class holding everything that is needed to write the packets of an NPC.
+ * Unlike a server player it is a plain record that is never added to a world, the {@link VersionWrapper} writes the packets straight from it.
+ */
+public class NPCEntity {
+
+    /**
+     * The eye height of a standing player.
+     */
+    public static final float EYE_HEIGHT = 1.62F;
+
+    private final int entityId;
+    private final UUID uuid;
+    private String name;
+    private String texture;
+    private String signature;
+    private byte skinParts;
+    private double x, y, z;
+    private float yaw, pitch;
+    private boolean sneaking;
+
+    /**
+     * Constructs a new NPCEntity with information from the {@link NPC} instance.
+     * @param entityId The entity id of the NPC. Use {@link VersionWrapper#nextEntityId()} so it doesn't collide with the ids of other entities.
+     * @param npc The npc holding the information.
+     */
+    public NPCEntity(int entityId, NPC npc) {
+        this.entityId = entityId;
+        this.uuid = UUID.randomUUID();
+        update(npc);
+    }
+
+    /**
+     * Updates the name, skin, location and sneaking state with information from the {@link NPC} instance.
+     * Players that can see the NPC have to be sent new packets for the changes to become visible.
+     * @param npc The npc holding the new information.
+     */
+    public void update(NPC npc) {
+        NPCSkin skin = npc.getSkin();
+        Location loc = npc.getLoc();
+
+        name = npc.getName();
+        texture = skin.getTexture();
+        signature = skin.getSignature();
+        skinParts = (byte) skin.getEnabledParts().stream().mapToInt(NPCSkinPart::getBit).sum();
+        x = loc.getX();
+        y = loc.getY();
+        z = loc.getZ();
+        yaw = loc.getYaw();
+        pitch = loc.getPitch();
+        sneaking = npc.isSneaking();
+    }
+
+    /**
+     * @return The entity id of the NPC.
+     */
+    public int getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * @return The uuid of the NPC's profile.
+     */
+    public UUID getUniqueId() {
+        return uuid;
+    }
+
+    /**
+     * @return The name of the NPC's profile.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The texture of the NPC's skin.
+     */
+    public String getTexture() {
+        return texture;
+    }
+
+    /**
+     * @return The signature of the NPC's skin.
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return The enabled parts of the NPC's skin as a bitmask, see {@link NPCSkinPart#getBit()}.
+     */
+    public byte getSkinParts() {
+        return skinParts;
+    }
+
+    /**
+     * @return The x coordinate of the NPC.
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * @return The y coordinate of the NPC.
+     */
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * @return The z coordinate of the NPC.
+     */
+    public double getZ() {
+        return z;
+    }
+
+    /**
+     * @return The yaw of the NPC.
+     */
+    public float getYaw() {
+        return yaw;
+    }
+
+    /**
+     * @return The pitch of the NPC.
+     */
+    public float getPitch() {
+        return pitch;
+    }
+
+    /**
+     * @return True if the NPC is sneaking, false otherwise.
+     */
+    public boolean isSneaking() {
+        return sneaking;
+    }
+
+    /**
+     * Sets the sneaking state that is written into the metadata packets.
+     * @param sneaking Whether the NPC is sneaking.
+     */
+    public void setSneaking(boolean sneaking) {
+        this.sneaking = sneaking;
+    }
+}
@@ -0,0 +1,47 @@
+package de.rapha149.displayutils.version;
+
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the packet handlers a version wrapper added to the players' pipelines, so they can be removed again.
+ */
+public class PacketHandlerRegistry {
+
+    private final Map<UUID, Set<String>> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a handler that was added to the player's pipeline.
+     * @param player The player.
+     * @param handlerName The name of the handler.
+     */
+    public void register(Player player, String handlerName) {
+        handlers.computeIfAbsent(player.getUniqueId(), uuid -> ConcurrentHashMap.newKeySet()).add(handlerName);
+    }
+
+    /**
+     * Unregisters a handler of the player.
+     * @param player The player.
+     * @param handlerName The name of the handler.
+     * @return True if the handler was registered, false otherwise.
+     */
+    public boolean unregister(Player player, String handlerName) {
+        Set<String> names = handlers.get(player.getUniqueId());
+        return names != null && names.remove(handlerName);
+    }
+
+    /**
+     * Unregisters all handlers of the player.
+     * @param player The player.
+     * @return The names of the handlers that were registered for the player.
+     */
+    public Set<String> unregisterAll(Player player) {
+        Set<String> names = handlers.remove(player.getUniqueId());
+        return names != null ? names : Collections.emptySet();
+    }
+}
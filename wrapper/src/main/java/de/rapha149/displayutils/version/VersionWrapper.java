@@ -1,14 +1,14 @@
 package de.rapha149.displayutils.version;
 
-import de.rapha149.displayutils.display.npc.NPC;
 import de.rapha149.displayutils.display.scoreboard.TeamOptions;
+import io.netty.buffer.ByteBuf;
 import org.bukkit.Location;
 import org.bukkit.entity.ArmorStand;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 
 import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
 
 /**
@@ -23,8 +23,30 @@ public interface VersionWrapper {
      */
     void sendPackets(Player player, List<Object> packets);
 
+    /**
+     * Writes the packets to the player's channel and flushes it in a single task on the channel's event loop.
+     * Unlike {@link #sendPackets(Player, List)}, this hands only one task to the event loop for the whole batch instead of one per packet.
+     * The packets must not be modified after calling this method since they are written on the event loop at a later point.
+     * @param player The player to send the packets to.
+     * @param packets The packets to send.
+     */
+    void sendPacketBatch(Player player, List<Object> packets);
+
+    /**
+     * Serializes the packet into a buffer that can be written to any player's channel in place of the packet itself.
+     * This allows sending the same packet to multiple players while only encoding it once.
+     * The caller is responsible for releasing the returned buffer.
+     * Note that the buffer bypasses the packet encoder and all handlers that expect packet objects,
+     * including listeners added with {@link #addOutgoingPacketHandler(Player, String, Predicate)}.
+     * @param packet The packet to encode.
+     * @return The buffer containing the encoded packet.
+     */
+    ByteBuf encodePacket(Object packet);
+
     /**
      * Adds a packet listener to the player's outgoing packet pipeline.
+     * The listener is only called for packet objects. Packets that are written as encoded buffers (see {@link #encodePacket(Object)}) are not passed to it,
+     * which includes the packets the utils send to multiple players and the NPC packets.
      *
      * @param player The player to add the listener to.
      * @param handlerName The name of the handler (must be unique).
@@ -41,6 +63,31 @@ public interface VersionWrapper {
      */
     void addIncomingPacketHandler(Player player, String handlerName, Predicate<Object> listener);
 
+    /**
+     * Removes a packet listener that was added with {@link #addOutgoingPacketHandler(Player, String, Predicate)} or {@link #addIncomingPacketHandler(Player, String, Predicate)}.
+     *
+     * @param player The player to remove the listener from.
+     * @param handlerName The name of the handler.
+     * @return True if the handler existed and was removed, false otherwise.
+     */
+    boolean removePacketHandler(Player player, String handlerName);
+
+    /**
+     * Removes all packet listeners that were added to the player's pipelines by this wrapper.
+     * This should be called when the player quits or the plugin is disabled.
+     *
+     * @param player The player to remove the listeners from.
+     */
+    void removePacketHandlers(Player player);
+
+    /**
+     * Returns the class of the given incoming packet type for the current version.
+     * Incoming packets can be matched by comparing their class with the returned class.
+     * @param type The packet type.
+     * @return The packet class.
+     */
+    Class<?> getIncomingPacketClass(IncomingPacketType type);
+
     /**
      * @return The max length of prefixes and suffixes of teams for the current version or -1 if the length is unlimited for this version.
      */
@@ -162,6 +209,15 @@ public interface VersionWrapper {
      */
     Object getEntityMetadataPacket(LivingEntity entity);
 
+    /**
+     * Constructs a new entity metadata packet that only contains the given entries.
+     * This is a lot smaller than {@link #getEntityMetadataPacket(LivingEntity)}, which contains every entry of the entity.
+     * @param entity The entity to get the metadata from.
+     * @param fields The entries to include in the packet.
+     * @return The new entity metadata packet.
+     */
+    Object getEntityMetadataPacket(LivingEntity entity, Set<EntityMetadataField> fields);
+
     /**
      * Constructs a new destroy entities packet.
      * @param entities The entities to destroy.
@@ -178,52 +234,88 @@ public interface VersionWrapper {
     ArmorStand createArmorStand(Location loc);
 
     /**
-     * Constructs a new {@link Player} instance with information from the {@link NPC} instance.
-     * @param npc The npc holding the information.
-     * @return The new player.
+     * Reserves a new id from the server's entity counter, so it doesn't collide with the ids of real entities.
+     * Must be called on the main thread.
+     * @return The new entity id.
      */
-    Player createPlayer(NPC npc);
+    int nextEntityId();
 
     /**
-     * Sets the player's sneaking state.
-     * This is necessary because in newer versions you need to call a nms method in order for the packet to be sent.
-     * @param player The player.
-     * @param sneaking Whether the player should be sneaking or not.
+     * Constructs a new player info packet for an NPC.
+     * @param entity The NPC.
+     * @param add Whether to add or remove the NPC from the tablist.
+     * @return The new player info packet.
      */
-    void setSneaking(Player player, boolean sneaking);
+    Object getPlayerInfoPacket(NPCEntity entity, boolean add);
 
     /**
-     * Constructs a new player info packet.
-     * @param player The player.
-     * @param add Whether to add or remove the player from the tablist.
+     * Constructs a new player info packet for multiple NPCs.
+     * @param entities The NPCs.
+     * @param add Whether to add or remove the NPCs from the tablist.
      * @return The new player info packet.
      */
-    Object getPlayerInfoPacket(Player player, boolean add);
+    Object getPlayerInfoPacket(List<NPCEntity> entities, boolean add);
+
+    /**
+     * Encodes a named entity spawn packet for an NPC directly into a buffer.
+     * The buffer can be written to any player's channel like the buffers from {@link #encodePacket(Object)}.
+     * @param entity The NPC to spawn.
+     * @return The buffer containing the encoded packet.
+     */
+    ByteBuf encodeNamedEntitySpawnPacket(NPCEntity entity);
+
+    /**
+     * Constructs a new entity metadata packet that contains the sneaking state and the skin parts of an NPC.
+     * @param entity The NPC.
+     * @return The new entity metadata packet.
+     */
+    Object getEntityMetadataPacket(NPCEntity entity);
+
+    /**
+     * Constructs a new entity metadata packet for an NPC that only contains the given entries.
+     * The custom name entries are ignored because NPCs show their name through their profile.
+     * @param entity The NPC.
+     * @param fields The entries to include in the packet.
+     * @return The new entity metadata packet.
+     */
+    Object getEntityMetadataPacket(NPCEntity entity, Set<EntityMetadataField> fields);
 
     /**
-     * Constructs a new named entity spawn packet.
-     * @param player The player to spawn.
-     * @return The new named entity spawn packet.
+     * Encodes an entity teleport packet that moves an NPC to its current location directly into a buffer.
+     * The buffer can be written to any player's channel like the buffers from {@link #encodePacket(Object)}.
+     * @param entity The NPC.
+     * @return The buffer containing the encoded packet.
+     */
+    ByteBuf encodeEntityTeleportPacket(NPCEntity entity);
+
+    /**
+     * Constructs a new destroy entities packet.
+     * @param entityIds The ids of the entities to destroy.
+     * @return The new destroy entities packet.
      */
-    Object getNamedEntitySpawnPacket(Player player);
+    Object getDestroyEntitiesPacket(int[] entityIds);
 
     /**
-     * Constructs a new entity head rotation packet.
-     * @param entity The entity.
-     * @param yaw The yaw to set.
-     * @return The new entity head rotation packet.
+     * Encodes an entity look packet directly into a buffer without constructing the packet.
+     * This still allocates a new pooled buffer and serializer for every call, it only skips creating the packet object and looking up its id.
+     * The buffer can be written to any player's channel like the buffers from {@link #encodePacket(Object)}.
+     * @param entityId The id of the entity.
+     * @param yaw The yaw as a protocol angle, which is the yaw in degrees multiplied by 256 / 360.
+     * @param pitch The pitch as a protocol angle.
+     * @param onGround Whether the entity is on the ground.
+     * @return The buffer containing the encoded packet.
      */
-    Object getEntityHeadRotationPacket(Entity entity, float yaw);
+    ByteBuf encodeEntityLookPacket(int entityId, byte yaw, byte pitch, boolean onGround);
 
     /**
-     * Constructs new update rotation packets.
-     * Automatically included the entity head rotation packet from {@link #getEntityHeadRotationPacket(Entity, float)}
-     * @param entity The entity.
-     * @param yaw The yaw to set.
-     * @param pitch The pitch to set.
-     * @return The new update rotation packets.
+     * Encodes an entity head rotation packet directly into a buffer without constructing the packet.
+     * Like {@link #encodeEntityLookPacket(int, byte, byte, boolean)}, this allocates a new pooled buffer for every call.
+     * The buffer can be written to any player's channel like the buffers from {@link #encodePacket(Object)}.
+     * @param entityId The id of the entity.
+     * @param yaw The yaw as a protocol angle, which is the yaw in degrees multiplied by 256 / 360.
+     * @return The buffer containing the encoded packet.
      */
-    List<Object> getUpdateRotationPackets(Entity entity, float yaw, float pitch);
+    ByteBuf encodeEntityHeadRotationPacket(int entityId, byte yaw);
 
     /**
      * Extracts the entity id from a use entity packet.